@@ -0,0 +1,14 @@
+package be.kuleuven.mandelbrot;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+// Sink for an image that is produced top to bottom in horizontal bands, so it never has to exist in memory as a whole.
+public interface BandWriter extends Closeable {
+
+    // argb holds rows x width pixels, row-major; bands arrive in order
+    void writeBand(int[] argb, int rows) throws IOException;
+
+    // bytes written to disk so far
+    long bytesWritten();
+}
@@ -0,0 +1,385 @@
+package be.kuleuven.mandelbrot;
+
+import org.apache.commons.io.IOUtils;
+import org.jppf.client.JPPFClient;
+import org.jppf.client.JPPFJob;
+import org.jppf.client.event.JobEvent;
+import org.jppf.client.event.JobListenerAdapter;
+import org.jppf.node.protocol.Task;
+
+import java.awt.*;
+import java.awt.geom.Rectangle2D;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Headless renderer for a list of viewports. The tiles of all frames go to one shared pool, local threads or the grid,
+// and up to `inFlight` frames are queued at once, so the tiles of the next frames keep every core busy while the last
+// tiles of a frame finish. Frames are written as PNG in the order they complete, with one timing row per frame in a CSV.
+//
+// Viewport file, one frame per line, '#' starts a comment:
+//   name width height minX minY viewWidth viewHeight [formula=julia] [julia=re,im] [iterations=n|auto] [samples=n]
+public class BatchRenderer {
+
+    public static class Entry {
+        public String name;
+        public int width, height;
+        public Rectangle2D.Double viewPort;
+        public Formula formula = Formula.MANDELBROT;
+        public double juliaRe = -0.8, juliaIm = 0.156;
+        // -1 for an automatic limit
+        public int maxIterations = 1000;
+        public int superSamples = 1;
+    }
+
+    private final File outputDirectory;
+    private final int tileSize, inFlight;
+
+    private ExecutorService executor;
+    private JPPFClient jppfClient;
+
+    // frames whose last tile came back, in completion order
+    private final BlockingQueue<Frame> finished = new LinkedBlockingQueue<>();
+
+    public BatchRenderer(File outputDirectory, int tileSize, int inFlight) {
+        this.outputDirectory = outputDirectory;
+        this.tileSize = tileSize;
+        this.inFlight = inFlight;
+    }
+
+    public void useLocalThreads(int threads) {
+        executor = Executors.newFixedThreadPool(threads);
+    }
+
+    public void useGrid(JPPFClient jppfClient) {
+        this.jppfClient = jppfClient;
+    }
+
+    public static List<Entry> parse(File file) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                int comment = line.indexOf('#');
+                if (comment >= 0) {
+                    line = line.substring(0, comment);
+                }
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+");
+                try {
+                    Entry entry = new Entry();
+                    entry.name = fields[0];
+                    entry.width = Integer.parseInt(fields[1]);
+                    entry.height = Integer.parseInt(fields[2]);
+                    entry.viewPort = new Rectangle2D.Double(Double.parseDouble(fields[3]), Double.parseDouble(fields[4]),
+                            Double.parseDouble(fields[5]), Double.parseDouble(fields[6]));
+                    for (int i = 7; i < fields.length; i++) {
+                        String[] option = fields[i].split("=", 2);
+                        switch (option[0]) {
+                            case "formula":
+                                entry.formula = Formula.valueOf(option[1].toUpperCase());
+                                break;
+                            case "julia":
+                                String[] c = option[1].split(",");
+                                entry.juliaRe = Double.parseDouble(c[0]);
+                                entry.juliaIm = Double.parseDouble(c[1]);
+                                break;
+                            case "iterations":
+                                entry.maxIterations = option[1].equals("auto") ? -1 : Integer.parseInt(option[1]);
+                                break;
+                            case "samples":
+                                entry.superSamples = Integer.parseInt(option[1]);
+                                break;
+                            default:
+                                throw new IllegalArgumentException("unknown option " + fields[i]);
+                        }
+                    }
+                    if (entry.width < 1 || entry.height < 1 || entry.superSamples < 1 || entry.maxIterations == 0 || entry.maxIterations < -1) {
+                        throw new IllegalArgumentException("invalid size, samples or iterations");
+                    }
+                    entries.add(entry);
+                } catch (RuntimeException e) {
+                    throw new IOException(String.format("%s:%d: %s", file, lineNumber, e), e);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return entries;
+    }
+
+    public void render(List<Entry> entries, File csv) throws Exception {
+        PrintWriter timings = new PrintWriter(new FileWriter(csv));
+        timings.println("frame,width,height,kernel,iterations,samples,tiles,latency_ms,compute_ms,write_ms,bytes,encode_mbps");
+        List<Frame> active = new ArrayList<>();
+        int next = 0, done = 0;
+        long startTime = System.currentTimeMillis();
+        long pixels = 0;
+
+        try {
+            while (done < entries.size()) {
+                while (next < entries.size() && active.size() < inFlight) {
+                    active.add(submit(entries.get(next++)));
+                }
+                Frame frame = finished.take();
+                active.remove(frame);
+                done++;
+                if (frame.failure != null) {
+                    throw new Exception("Frame " + frame.entry.name + " failed", frame.failure);
+                }
+                long latency = System.nanoTime() - frame.submitTime;
+
+                long writeStart = System.nanoTime();
+                File output = new File(outputDirectory, frame.entry.name + ".png");
+                ParallelPngWriter writer = new ParallelPngWriter(output, frame.entry.width, frame.entry.height, Runtime.getRuntime().availableProcessors());
+                try {
+                    writer.writeBand(frame.argb, frame.entry.height);
+                    writer.close();
+                } finally {
+                    IOUtils.closeQuietly(writer);
+                }
+                long write = System.nanoTime() - writeStart;
+                pixels += (long) frame.entry.width * frame.entry.height;
+
+                timings.printf("%s,%d,%d,%s,%d,%d,%d,%.3f,%.3f,%.3f,%d,%.1f\n", frame.entry.name, frame.entry.width, frame.entry.height,
+                        frame.kernel.label(), frame.maxIterations, frame.entry.superSamples, frame.tiles, latency / 1e6,
+                        frame.computeNanos.get() / 1e6, write / 1e6, writer.bytesWritten(), writer.megabytesPerSecond());
+                timings.flush();
+
+                double seconds = Math.max(1, System.currentTimeMillis() - startTime) / 1000.0;
+                System.out.printf("Frame %d/%d  %-24s %8.1f ms  %.2f Mpixel/s overall\n", done, entries.size(), frame.entry.name,
+                        latency / 1e6, pixels / seconds / 1e6);
+            }
+        } finally {
+            for (Frame frame : active) {
+                frame.cancel();
+            }
+            timings.close();
+        }
+
+        long endTime = System.currentTimeMillis();
+        System.out.printf("Rendered %d frames in %d ms (%.2f Mpixel/s)\n", entries.size(), endTime - startTime,
+                pixels / (Math.max(1, endTime - startTime) / 1000.0) / 1e6);
+    }
+
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private Frame submit(Entry entry) throws Exception {
+        FractalKernel kernel = entry.formula.kernel(entry.viewPort, entry.width, entry.height, entry.juliaRe, entry.juliaIm);
+        int maxIterations = entry.maxIterations == -1 ? IterationBudget.estimate(kernel, entry.viewPort) : entry.maxIterations;
+        // rows mirrored across the real axis are no tiles of their own, complete() copies them from their source rows
+        ConjugateSymmetry symmetry = ConjugateSymmetry.of(kernel, entry.viewPort.getMaxY(), entry.viewPort.getHeight(), entry.height);
+        List<RunTask> tasks = new ArrayList<>();
+        for (Rectangle tile : TileOrder.tiles(entry.width, entry.height, tileSize, symmetry, entry.width / 2.0, entry.height / 2.0)) {
+            RunTask task = new RunTask(maxIterations, entry.superSamples, entry.viewPort.getMinX(), entry.viewPort.getMaxY(),
+                    entry.viewPort.getWidth(), entry.viewPort.getHeight(), tile.x, tile.y, tile.width, tile.height, entry.width, entry.height);
+            task.kernel = kernel;
+            tasks.add(task);
+        }
+        Frame frame = jppfClient != null ? new GridFrame(entry, kernel, maxIterations, symmetry, tasks)
+                : new LocalFrame(entry, kernel, maxIterations, symmetry, tasks);
+        frame.start(tasks);
+        return frame;
+    }
+
+    private abstract class Frame {
+        final Entry entry;
+        final FractalKernel kernel;
+        final int maxIterations, tiles;
+        final ConjugateSymmetry symmetry;
+        final int[] argb;
+        final AtomicInteger remaining;
+        final AtomicLong computeNanos = new AtomicLong();
+        final long submitTime = System.nanoTime();
+        volatile Throwable failure;
+
+        Frame(Entry entry, FractalKernel kernel, int maxIterations, ConjugateSymmetry symmetry, List<RunTask> tasks) {
+            this.entry = entry;
+            this.kernel = kernel;
+            this.maxIterations = maxIterations;
+            this.symmetry = symmetry;
+            this.tiles = tasks.size();
+            this.argb = new int[entry.width * entry.height];
+            this.remaining = new AtomicInteger(tasks.size());
+        }
+
+        abstract void start(List<RunTask> tasks) throws Exception;
+
+        abstract void cancel();
+
+        // copy a finished tile and the rows mirroring it into the frame, the last tile hands the frame to the writer
+        void complete(RunTask task) {
+            if (task.getThrowable() != null) {
+                failure = task.getThrowable();
+            } else {
+                int[] tile = task.getResult();
+                for (int h = 0; h < task.tileHeight; h++) {
+                    System.arraycopy(tile, h * task.tileWidth, argb, (task.tileY + h) * entry.width + task.tileX, task.tileWidth);
+                }
+                Rectangle mirror = TileOrder.mirror(new Rectangle(task.tileX, task.tileY, task.tileWidth, task.tileHeight), symmetry);
+                if (mirror != null) {
+                    for (int h = mirror.y; h < mirror.y + mirror.height; h++) {
+                        System.arraycopy(argb, symmetry.source(h) * entry.width + task.tileX, argb, h * entry.width + task.tileX, task.tileWidth);
+                    }
+                }
+                computeNanos.addAndGet(task.nanos);
+            }
+            if (remaining.decrementAndGet() == 0) {
+                finished.add(this);
+            }
+        }
+    }
+
+    private class LocalFrame extends Frame {
+        private final List<Future<?>> futures = new ArrayList<>();
+
+        LocalFrame(Entry entry, FractalKernel kernel, int maxIterations, ConjugateSymmetry symmetry, List<RunTask> tasks) {
+            super(entry, kernel, maxIterations, symmetry, tasks);
+        }
+
+        @Override
+        void start(List<RunTask> tasks) {
+            for (final RunTask task : tasks) {
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        // a failed tile still counts down, the frame is reported instead of waited for forever
+                        try {
+                            task.run();
+                        } catch (Throwable t) {
+                            task.setThrowable(t);
+                        } finally {
+                            complete(task);
+                        }
+                    }
+                }));
+            }
+        }
+
+        @Override
+        void cancel() {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private class GridFrame extends Frame {
+        private final JPPFJob job = new JPPFJob();
+
+        GridFrame(Entry entry, FractalKernel kernel, int maxIterations, ConjugateSymmetry symmetry, List<RunTask> tasks) {
+            super(entry, kernel, maxIterations, symmetry, tasks);
+        }
+
+        @Override
+        void start(List<RunTask> tasks) throws Exception {
+            job.setName("Batch " + entry.name);
+            for (RunTask task : tasks) {
+                job.add(task);
+            }
+            TileCostBundler.attachCosts(job, TileCost.estimate(tasks));
+            // tiles come back in chunks as nodes finish them
+            job.addJobListener(new JobListenerAdapter() {
+                @Override
+                public void jobReturned(JobEvent event) {
+                    for (Task<?> task : event.getJobTasks()) {
+                        complete((RunTask) task);
+                    }
+                }
+            });
+            jppfClient.submitAsync(job);
+        }
+
+        @Override
+        void cancel() {
+            job.cancel();
+        }
+    }
+
+    private static void usage() {
+        System.out.println("usage: BatchRenderer <viewports.txt> <output directory> [-tile size] [-inflight frames] [-threads n] [-jppf] [-csv file]");
+        System.exit(1);
+    }
+
+    public static void main(String... args) throws Exception {
+        if (args.length < 2) {
+            usage();
+        }
+        List<Entry> entries = parse(new File(args[0]));
+        File outputDirectory = new File(args[1]);
+        int threads = Runtime.getRuntime().availableProcessors();
+        int tileSize = 128, inFlight = 4;
+        boolean grid = false;
+        File csv = null;
+
+        for (int i = 2; i < args.length; i++) {
+            switch (args[i]) {
+                case "-tile":
+                    tileSize = Integer.parseInt(args[++i]);
+                    break;
+                case "-inflight":
+                    inFlight = Integer.parseInt(args[++i]);
+                    break;
+                case "-threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "-jppf":
+                    grid = true;
+                    break;
+                case "-csv":
+                    csv = new File(args[++i]);
+                    break;
+                default:
+                    usage();
+            }
+        }
+        if (tileSize < 1 || inFlight < 1 || threads < 1) {
+            usage();
+        }
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            throw new IOException("Cannot create output directory " + outputDirectory);
+        }
+        if (csv == null) {
+            csv = new File(outputDirectory, "timings.csv");
+        }
+
+        BatchRenderer renderer = new BatchRenderer(outputDirectory, tileSize, inFlight);
+        JPPFClient jppfClient = null;
+        try {
+            if (grid) {
+                jppfClient = new JPPFClient();
+                renderer.useGrid(jppfClient);
+            } else {
+                renderer.useLocalThreads(threads);
+            }
+            renderer.render(entries, csv);
+        } finally {
+            renderer.shutdown();
+            if (jppfClient != null) {
+                jppfClient.close();
+            }
+        }
+    }
+}
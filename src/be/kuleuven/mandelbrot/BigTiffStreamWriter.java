@@ -0,0 +1,155 @@
+package be.kuleuven.mandelbrot;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+// Streaming uncompressed RGB BigTIFF writer: every band becomes one strip, the IFD is appended once all strips are on disk.
+public class BigTiffStreamWriter implements BandWriter {
+    private static final int TYPE_SHORT = 3, TYPE_LONG = 4, TYPE_LONG8 = 16;
+
+    private final int width, height, rowsPerStrip;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long[] stripOffsets, stripByteCounts;
+    private final ByteBuffer buffer;
+    private int strips, rowsWritten;
+    // close() may be called again from a cleanup path, only the first call writes
+    private boolean closed;
+
+    public BigTiffStreamWriter(File file, int width, int height, int rowsPerStrip) throws IOException {
+        this.width = width;
+        this.height = height;
+        this.rowsPerStrip = rowsPerStrip;
+        int stripCount = (height + rowsPerStrip - 1) / rowsPerStrip;
+        this.stripOffsets = new long[stripCount];
+        this.stripByteCounts = new long[stripCount];
+        this.buffer = ByteBuffer.allocateDirect(Math.max(3 * width, 1 << 16)).order(ByteOrder.LITTLE_ENDIAN);
+
+        this.file = new RandomAccessFile(file, "rw");
+        this.file.setLength(0);
+        this.channel = this.file.getChannel();
+
+        // header: byte order, version 43, offset size 8, IFD offset patched in close()
+        buffer.clear();
+        buffer.put((byte) 'I').put((byte) 'I').putShort((short) 43).putShort((short) 8).putShort((short) 0).putLong(0);
+        flush();
+    }
+
+    @Override
+    public void writeBand(int[] argb, int rows) throws IOException {
+        if (rows != rowsPerStrip && rowsWritten + rows != height) {
+            throw new IOException(String.format("Only the last band may differ from %d rows, got %d", rowsPerStrip, rows));
+        }
+        if (rowsWritten + rows > height) {
+            throw new IOException(String.format("Band of %d rows exceeds image height %d", rows, height));
+        }
+        stripOffsets[strips] = channel.position();
+        stripByteCounts[strips] = 3L * width * rows;
+        for (int i = 0; i < width * rows; i++) {
+            if (buffer.remaining() < 3) {
+                flush();
+            }
+            int p = argb[i];
+            buffer.put((byte) (p >> 16)).put((byte) (p >> 8)).put((byte) p);
+        }
+        flush();
+        strips++;
+        rowsWritten += rows;
+    }
+
+    @Override
+    public long bytesWritten() {
+        try {
+            return channel.position();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (rowsWritten != height) {
+                throw new IOException(String.format("Only %d of %d rows were written", rowsWritten, height));
+            }
+            long ifdOffset = align(channel.position());
+            int entries = 10;
+            long arraysOffset = ifdOffset + 8 + 20 * entries + 8;
+            boolean inline = strips == 1;
+            long offsetsAt = arraysOffset;
+            long countsAt = arraysOffset + 8L * strips;
+
+            channel.position(ifdOffset);
+            buffer.clear();
+            buffer.putLong(entries);
+            entry(256, TYPE_LONG, 1, width);
+            entry(257, TYPE_LONG, 1, height);
+            // BitsPerSample 8,8,8 fits inline as three shorts
+            buffer.putShort((short) 258).putShort((short) TYPE_SHORT).putLong(3)
+                    .putShort((short) 8).putShort((short) 8).putShort((short) 8).putShort((short) 0);
+            entry(259, TYPE_SHORT, 1, 1);
+            entry(262, TYPE_SHORT, 1, 2);
+            entry(273, TYPE_LONG8, strips, inline ? stripOffsets[0] : offsetsAt);
+            entry(277, TYPE_SHORT, 1, 3);
+            entry(278, TYPE_LONG, 1, rowsPerStrip);
+            entry(279, TYPE_LONG8, strips, inline ? stripByteCounts[0] : countsAt);
+            entry(284, TYPE_SHORT, 1, 1);
+            buffer.putLong(0);
+            flush();
+
+            if (!inline) {
+                writeLongs(stripOffsets);
+                writeLongs(stripByteCounts);
+            }
+
+            buffer.clear();
+            buffer.putLong(ifdOffset);
+            buffer.flip();
+            channel.write(buffer, 8);
+        } finally {
+            file.close();
+        }
+    }
+
+    private void entry(int tag, int type, long count, long value) {
+        buffer.putShort((short) tag).putShort((short) type).putLong(count);
+        if (type == TYPE_SHORT) {
+            buffer.putShort((short) value).putShort((short) 0).putInt(0);
+        } else if (type == TYPE_LONG) {
+            buffer.putInt((int) value).putInt(0);
+        } else {
+            buffer.putLong(value);
+        }
+    }
+
+    private void writeLongs(long[] values) throws IOException {
+        buffer.clear();
+        for (int i = 0; i < strips; i++) {
+            if (buffer.remaining() < 8) {
+                flush();
+            }
+            buffer.putLong(values[i]);
+        }
+        flush();
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static long align(long offset) {
+        return (offset + 1) & ~1L;
+    }
+}
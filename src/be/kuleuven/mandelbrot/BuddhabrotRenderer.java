@@ -0,0 +1,330 @@
+package be.kuleuven.mandelbrot;
+
+import org.jppf.client.JPPFClient;
+import org.jppf.client.JPPFJob;
+import org.jppf.client.event.JobEvent;
+import org.jppf.client.event.JobListenerAdapter;
+import org.jppf.node.protocol.Task;
+
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Buddhabrot and Nebulabrot renderer. Locally every thread claims chunks of BuddhabrotTask orbits and counts them in a
+// histogram of its own, so the hot loop shares nothing; the histograms are summed when an image is needed. An intermediate
+// sum reads counters that are still being written, which only makes it slightly out of date. On the grid every task
+// returns the histogram of its chunks and the client adds it to the total as the task comes back.
+// Every `publishMillis` the current sum is tone mapped and handed to the listener, once more when all samples are done.
+// usage: BuddhabrotRenderer <output.png> [-size w h] [-viewport x y w h] [-samples n] [-limits 5000,500,50] [-seed n] [-threads n] [-jppf] [-snapshot seconds]
+public class BuddhabrotRenderer {
+    // chunks per grid task, a task's histogram is sent back whole so it should stand for a good amount of work
+    private static final int TASK_CHUNKS = 16;
+
+    public interface Listener {
+        void published(BufferedImage image, long samples, boolean done);
+    }
+
+    private final int width, height;
+    private final Rectangle2D.Double viewPort;
+    private final int[] limits;
+
+    private ExecutorService executor;
+    private int threads;
+    private JPPFClient jppfClient;
+
+    private volatile boolean cancelled;
+    private volatile JPPFJob job;
+
+    public BuddhabrotRenderer(int width, int height, Rectangle2D.Double viewPort, int[] limits) {
+        this.width = width;
+        this.height = height;
+        this.viewPort = viewPort;
+        this.limits = limits;
+    }
+
+    public void useLocalThreads(int threads) {
+        this.threads = threads;
+        executor = Executors.newFixedThreadPool(threads);
+    }
+
+    public void useGrid(JPPFClient jppfClient) {
+        this.jppfClient = jppfClient;
+    }
+
+    public void cancel() {
+        cancelled = true;
+        JPPFJob running = job;
+        if (running != null) {
+            running.cancel();
+        }
+    }
+
+    public void shutdown() {
+        cancel();
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    // blocks until all samples are counted or the render is cancelled, returns the last image
+    public BufferedImage render(long samples, long seed, long publishMillis, Listener listener) throws Exception {
+        BuddhabrotTask template = new BuddhabrotTask(width, height, viewPort.getMinX(), viewPort.getMaxY(), viewPort.getWidth(), viewPort.getHeight(),
+                limits, samples, seed);
+        return jppfClient != null ? renderGrid(template, publishMillis, listener) : renderLocal(template, publishMillis, listener);
+    }
+
+    private BufferedImage renderLocal(final BuddhabrotTask template, long publishMillis, Listener listener) throws Exception {
+        final int[][] histograms = new int[threads][];
+        final AtomicLong nextChunk = new AtomicLong();
+        final AtomicLong counted = new AtomicLong();
+        final CountDownLatch finished = new CountDownLatch(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int[] histogram = histograms[t] = new int[limits.length * width * height];
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        long chunk;
+                        while (!cancelled && (chunk = nextChunk.getAndIncrement()) < template.lastChunk) {
+                            counted.addAndGet(template.sampleChunk(histogram, chunk));
+                        }
+                    } finally {
+                        finished.countDown();
+                    }
+                }
+            }));
+        }
+
+        while (!finished.await(publishMillis, TimeUnit.MILLISECONDS)) {
+            listener.published(toImage(sum(histograms), width, height, limits.length), counted.get(), false);
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        BufferedImage image = toImage(sum(histograms), width, height, limits.length);
+        listener.published(image, counted.get(), !cancelled);
+        return image;
+    }
+
+    private static long[] sum(int[][] histograms) {
+        long[] total = new long[histograms[0].length];
+        for (int[] histogram : histograms) {
+            for (int i = 0; i < total.length; i++) {
+                total[i] += histogram[i];
+            }
+        }
+        return total;
+    }
+
+    private BufferedImage renderGrid(BuddhabrotTask template, long publishMillis, Listener listener) throws Exception {
+        final long[] total = new long[limits.length * width * height];
+        final AtomicLong counted = new AtomicLong();
+        final List<Throwable> failures = new ArrayList<>();
+
+        JPPFJob gridJob = new JPPFJob();
+        gridJob.setName("Buddhabrot");
+        for (long chunk = 0; chunk < template.lastChunk; chunk += TASK_CHUNKS) {
+            BuddhabrotTask task = new BuddhabrotTask(width, height, template.minX, template.maxY, template.viewWidth, template.viewHeight,
+                    limits, template.samples, template.seed);
+            task.firstChunk = chunk;
+            task.lastChunk = Math.min(template.lastChunk, chunk + TASK_CHUNKS);
+            gridJob.add(task);
+        }
+        gridJob.addJobListener(new JobListenerAdapter() {
+            @Override
+            public void jobReturned(JobEvent event) {
+                for (Task<?> returned : event.getJobTasks()) {
+                    BuddhabrotTask task = (BuddhabrotTask) returned;
+                    int[] histogram = task.getResult();
+                    if (histogram == null) {
+                        synchronized (failures) {
+                            failures.add(task.getThrowable());
+                        }
+                        continue;
+                    }
+                    synchronized (total) {
+                        for (int i = 0; i < total.length; i++) {
+                            total[i] += histogram[i];
+                        }
+                    }
+                    counted.addAndGet(Math.min(task.samples, task.lastChunk * BuddhabrotTask.CHUNK) - task.firstChunk * BuddhabrotTask.CHUNK);
+                    // the job keeps its tasks, not their histograms
+                    task.setResult(null);
+                }
+            }
+        });
+        job = gridJob;
+        if (cancelled) {
+            return null;
+        }
+        jppfClient.submitAsync(gridJob);
+
+        while (!gridJob.isDone()) {
+            gridJob.awaitResults(publishMillis);
+            if (!gridJob.isDone()) {
+                listener.published(toImage(snapshot(total), width, height, limits.length), counted.get(), false);
+            }
+        }
+        synchronized (failures) {
+            if (!failures.isEmpty() && !cancelled) {
+                throw new Exception("Buddhabrot task failed", failures.get(0));
+            }
+        }
+        BufferedImage image = toImage(snapshot(total), width, height, limits.length);
+        listener.published(image, counted.get(), !cancelled);
+        return image;
+    }
+
+    private static long[] snapshot(long[] total) {
+        synchronized (total) {
+            return total.clone();
+        }
+    }
+
+    // square root of each count relative to the brightest pixel of its plane; one plane is grey, otherwise red, green, blue
+    public static BufferedImage toImage(long[] histogram, int width, int height, int planes) {
+        int plane = width * height;
+        double[] scale = new double[planes];
+        for (int k = 0; k < planes; k++) {
+            long max = 0;
+            for (int i = k * plane; i < (k + 1) * plane; i++) {
+                max = Math.max(max, histogram[i]);
+            }
+            scale[k] = max == 0 ? 0 : 255 / Math.sqrt(max);
+        }
+
+        int[] argb = new int[plane];
+        for (int i = 0; i < plane; i++) {
+            int[] rgb = new int[3];
+            for (int k = 0; k < 3; k++) {
+                int source = planes == 1 ? 0 : k;
+                if (source < planes) {
+                    rgb[k] = (int) (Math.sqrt(histogram[source * plane + i]) * scale[source]);
+                }
+            }
+            argb[i] = 0xff000000 | rgb[0] << 16 | rgb[1] << 8 | rgb[2];
+        }
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, width, height, argb, 0, width);
+        return image;
+    }
+
+    private static void write(BufferedImage image, File output) throws Exception {
+        int[] argb = image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+        File partial = new File(output.getPath() + ".part");
+        ParallelPngWriter writer = new ParallelPngWriter(partial, image.getWidth(), image.getHeight(), Runtime.getRuntime().availableProcessors());
+        try {
+            writer.writeBand(argb, image.getHeight());
+        } finally {
+            writer.close();
+        }
+        // replace the previous snapshot in one step so a viewer never sees half a file
+        if (!partial.renameTo(output)) {
+            output.delete();
+            if (!partial.renameTo(output)) {
+                throw new Exception("Cannot write " + output);
+            }
+        }
+    }
+
+    private static void usage() {
+        System.out.println("usage: BuddhabrotRenderer <output.png> [-size w h] [-viewport x y w h] [-samples n] [-limits 5000,500,50] [-seed n] [-threads n] [-jppf] [-snapshot seconds]");
+        System.exit(1);
+    }
+
+    public static void main(String... args) throws Exception {
+        if (args.length < 1) {
+            usage();
+        }
+        final File output = new File(args[0]);
+        int width = 1024, height = 768, threads = Runtime.getRuntime().availableProcessors();
+        Rectangle2D.Double viewPort = new Rectangle2D.Double(-2.5, -1, 3.5, 2);
+        long samples = 50000000, seed = 1;
+        int[] limits = {5000, 500, 50};
+        double snapshotSeconds = 10;
+        boolean grid = false;
+
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "-size":
+                    width = Integer.parseInt(args[++i]);
+                    height = Integer.parseInt(args[++i]);
+                    break;
+                case "-viewport":
+                    viewPort = new Rectangle2D.Double(Double.parseDouble(args[++i]), Double.parseDouble(args[++i]),
+                            Double.parseDouble(args[++i]), Double.parseDouble(args[++i]));
+                    break;
+                case "-samples":
+                    samples = Long.parseLong(args[++i]);
+                    break;
+                case "-limits":
+                    String[] parts = args[++i].split(",");
+                    limits = new int[parts.length];
+                    for (int k = 0; k < parts.length; k++) {
+                        limits[k] = Integer.parseInt(parts[k].trim());
+                    }
+                    break;
+                case "-seed":
+                    seed = Long.parseLong(args[++i]);
+                    break;
+                case "-threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "-jppf":
+                    grid = true;
+                    break;
+                case "-snapshot":
+                    snapshotSeconds = Double.parseDouble(args[++i]);
+                    break;
+                default:
+                    usage();
+            }
+        }
+        if (width < 1 || height < 1 || samples < 1 || threads < 1 || snapshotSeconds <= 0 || limits.length < 1 || limits.length > 3) {
+            usage();
+        }
+        for (int limit : limits) {
+            if (limit < 1) {
+                usage();
+            }
+        }
+
+        BuddhabrotRenderer renderer = new BuddhabrotRenderer(width, height, viewPort, limits);
+        JPPFClient jppfClient = null;
+        final long startTime = System.nanoTime();
+        try {
+            if (grid) {
+                jppfClient = new JPPFClient();
+                renderer.useGrid(jppfClient);
+            } else {
+                renderer.useLocalThreads(threads);
+            }
+            renderer.render(samples, seed, (long) (snapshotSeconds * 1000), new Listener() {
+                @Override
+                public void published(BufferedImage image, long counted, boolean done) {
+                    try {
+                        write(image, output);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                    double seconds = (System.nanoTime() - startTime) / 1e9;
+                    System.out.printf("%s %d samples after %.1f s, %.2f Msamples/s\n", done ? "done" : "snapshot", counted, seconds, counted / seconds / 1e6);
+                }
+            });
+        } finally {
+            renderer.shutdown();
+            if (jppfClient != null) {
+                jppfClient.close();
+            }
+        }
+    }
+}
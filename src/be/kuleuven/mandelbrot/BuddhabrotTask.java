@@ -0,0 +1,115 @@
+package be.kuleuven.mandelbrot;
+
+import org.jppf.node.protocol.AbstractTask;
+
+import java.util.SplittableRandom;
+
+// Traces random orbits of z -> z^2 + c and counts, for every orbit that escapes, each point it visited in a width x height
+// histogram of the viewport. With several iteration limits (Nebulabrot) there is one histogram plane per limit, and an
+// orbit only counts in the planes whose limit it escaped within. The histogram is owned by whoever calls sampleChunk(),
+// so nothing is shared while counting; as a grid task the result is the task's own histogram of chunks [firstChunk, lastChunk).
+//
+// A render of `samples` orbits is cut into chunks of CHUNK orbits, each with its own random sequence, so the same seed
+// gives the same image whether the chunks ran on local threads or on the grid.
+public class BuddhabrotTask extends AbstractTask<int[]> {
+    public static final long CHUNK = 1 << 18;
+
+    public int width, height;
+    public double minX, maxY, viewWidth, viewHeight;
+    // one histogram plane per limit
+    public int[] limits;
+    public long samples, seed;
+    public long firstChunk, lastChunk;
+
+    public BuddhabrotTask(int width, int height, double minX, double maxY, double viewWidth, double viewHeight, int[] limits, long samples, long seed) {
+        this.width = width;
+        this.height = height;
+        this.minX = minX;
+        this.maxY = maxY;
+        this.viewWidth = viewWidth;
+        this.viewHeight = viewHeight;
+        this.limits = limits;
+        this.samples = samples;
+        this.seed = seed;
+        lastChunk = chunks(samples);
+    }
+
+    public static long chunks(long samples) {
+        return (samples + CHUNK - 1) / CHUNK;
+    }
+
+    @Override
+    public void run() {
+        int[] histogram = new int[limits.length * width * height];
+        for (long chunk = firstChunk; chunk < lastChunk; chunk++) {
+            sampleChunk(histogram, chunk);
+        }
+        setResult(histogram);
+    }
+
+    // returns the number of orbits traced
+    public long sampleChunk(int[] histogram, long chunk) {
+        long count = Math.min(CHUNK, samples - chunk * CHUNK);
+        sample(histogram, count, new SplittableRandom(seed + chunk * 0x9E3779B97F4A7C15L));
+        return count;
+    }
+
+    private void sample(int[] histogram, long count, SplittableRandom random) {
+        int maxLimit = 0;
+        for (int limit : limits) {
+            maxLimit = Math.max(maxLimit, limit);
+        }
+        double[] orbit = new double[2 * maxLimit];
+        int plane = width * height;
+        double scaleX = width / viewWidth, scaleY = height / viewHeight;
+
+        for (long s = 0; s < count; s++) {
+            // uniform in the disk of radius 2, everything outside escapes at once
+            double cx, cy;
+            do {
+                cx = 4 * random.nextDouble() - 2;
+                cy = 4 * random.nextDouble() - 2;
+            } while (cx * cx + cy * cy > 4);
+            // the main cardioid and the period-2 bulb never escape
+            double q = (cx - .25) * (cx - .25) + cy * cy;
+            if (q * (q + (cx - .25)) <= .25 * cy * cy || (cx + 1) * (cx + 1) + cy * cy <= 1.0 / 16) {
+                continue;
+            }
+
+            double x = 0, y = 0;
+            int n = 0;
+            while (n < maxLimit && x * x + y * y <= 4) {
+                double xtemp = x * x - y * y + cx;
+                y = 2 * x * y + cy;
+                x = xtemp;
+                orbit[2 * n] = x;
+                orbit[2 * n + 1] = y;
+                n++;
+            }
+            if (x * x + y * y <= 4) {
+                continue;
+            }
+
+            for (int i = 0; i < n; i++) {
+                int px = (int) Math.floor((orbit[2 * i] - minX) * scaleX);
+                if (px < 0 || px >= width) {
+                    continue;
+                }
+                // the orbit of conj(c) is the conjugate orbit, count both
+                int py = (int) Math.floor((maxY - orbit[2 * i + 1]) * scaleY);
+                int pyConjugate = (int) Math.floor((maxY + orbit[2 * i + 1]) * scaleY);
+                for (int k = 0; k < limits.length; k++) {
+                    if (n > limits[k]) {
+                        continue;
+                    }
+                    if (py >= 0 && py < height) {
+                        histogram[k * plane + py * width + px]++;
+                    }
+                    if (pyConjugate >= 0 && pyConjugate < height) {
+                        histogram[k * plane + pyConjugate * width + px]++;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package be.kuleuven.mandelbrot;
+
+// z -> (|Re z| + i|Im z|)^2 + c
+public final class BurningShipKernel implements FractalKernel {
+
+    @Override
+    public int iterate(double cxHi, double cxLo, double cyHi, double cyLo, int maxIterations) {
+        double x0 = cxHi + cxLo, y0 = cyHi + cyLo;
+        double x = 0, y = 0;
+        int iteration = 0;
+        while (x * x + y * y < 4 && iteration < maxIterations) {
+            double xtemp = x * x - y * y + x0;
+            y = 2 * Math.abs(x * y) + y0;
+            x = xtemp;
+            iteration++;
+        }
+        return iteration;
+    }
+
+    @Override
+    public boolean conjugateSymmetric() {
+        return false;
+    }
+
+    @Override
+    public String label() {
+        return "Burning Ship";
+    }
+
+    // stateless, every instance draws the same image
+    @Override
+    public boolean equals(Object other) {
+        return other != null && other.getClass() == getClass();
+    }
+
+    @Override
+    public int hashCode() {
+        return getClass().hashCode();
+    }
+}
@@ -0,0 +1,54 @@
+package be.kuleuven.mandelbrot;
+
+import java.io.Serializable;
+
+// The Mandelbrot set is symmetric about the real axis. When the row grid of a viewport is symmetric about y = 0, row h
+// shows the conjugate of row (mirror - h), including the super sample offsets, so those rows can be copied instead of computed.
+// Mirrored rows are always the contiguous range [mirrorStart, mirrorEnd] below the axis; their source row is above them.
+public class ConjugateSymmetry implements Serializable {
+    // rows must line up with the axis to within this fraction of a pixel
+    private static final double TOLERANCE = 1e-3;
+
+    // no row is mirrored
+    public static final ConjugateSymmetry NONE = new ConjugateSymmetry(-1, 0, -1);
+
+    public final int mirror, mirrorStart, mirrorEnd;
+
+    private ConjugateSymmetry(int mirror, int mirrorStart, int mirrorEnd) {
+        this.mirror = mirror;
+        this.mirrorStart = mirrorStart;
+        this.mirrorEnd = mirrorEnd;
+    }
+
+    public static ConjugateSymmetry of(FractalKernel kernel, double maxY, double viewHeight, int height) {
+        return kernel.conjugateSymmetric() ? of(maxY, viewHeight, height) : NONE;
+    }
+
+    public static ConjugateSymmetry of(double maxY, double viewHeight, int height) {
+        // pixel centre of row h is at maxY - (h + .5) * viewHeight / height, rows h and k are conjugate when h + k + 1 == 2 * maxY * height / viewHeight
+        double k = 2 * maxY * height / viewHeight;
+        long rounded = Math.round(k);
+        if (Math.abs(k - rounded) > TOLERANCE || rounded < 2 || rounded > 2L * height) {
+            return NONE;
+        }
+        int mirror = (int) rounded - 1;
+        int start = mirror / 2 + 1;
+        int end = Math.min(mirror, height - 1);
+        if (start > end) {
+            return NONE;
+        }
+        return new ConjugateSymmetry(mirror, start, end);
+    }
+
+    public boolean isMirrored(int h) {
+        return h >= mirrorStart && h <= mirrorEnd;
+    }
+
+    public int source(int h) {
+        return mirror - h;
+    }
+
+    public int mirroredRows() {
+        return mirrorEnd - mirrorStart + 1;
+    }
+}
@@ -0,0 +1,152 @@
+package be.kuleuven.mandelbrot;
+
+import java.awt.*;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+// What a frame cost to render: the iterations of every pixel, summed over its samples, and the time of the tile it was
+// in, spread evenly over the tile's pixels. Rows copied by conjugate symmetry get the iterations of their source but no
+// time, they were free. Tiles are disjoint, so renderers record their counts from several threads without locking. A
+// pass that only added samples to a tile is scaled up to the map's sample count, a map carried over between such passes
+// stays comparable.
+//
+// The heatmap overlay is kept up to date tile by tile as costs are recorded, on a fixed log scale up to the most a
+// pixel can cost, so showing it never takes more than a blit. The overlay is one image shared by every tile, its writes
+// and drawOverlay() synchronize on the map. Besides the overlay and the exports, a map answers estimate() for tasks
+// over the same viewport and image size, in the same unit as TileCost, so the next frame of a region can be balanced on
+// what the last one actually cost.
+public class CostMap {
+    public final int width, height;
+    public final Rectangle2D.Double viewPort;
+    public final FractalKernel kernel;
+    public final int maxIterations, superSamples;
+    private final int[] iterations;
+    private final float[] nanos;
+    private final BufferedImage overlay;
+    private final double overlayScale;
+
+    public CostMap(int width, int height, Rectangle2D.Double viewPort, FractalKernel kernel, int maxIterations, int superSamples) {
+        this.width = width;
+        this.height = height;
+        this.viewPort = viewPort;
+        this.kernel = kernel;
+        this.maxIterations = maxIterations;
+        this.superSamples = superSamples;
+        this.iterations = new int[width * height];
+        this.nanos = new float[width * height];
+        this.overlay = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        this.overlayScale = 1 / Math.log1p((double) maxIterations * superSamples);
+    }
+
+    // counts of the tile are row-major, tileWidth x tileHeight, summed over the `drawn` samples the pass drew
+    public void record(Rectangle tile, int[] counts, int drawn, long tileNanos) {
+        double scale = (double) superSamples / drawn;
+        float share = (float) (tileNanos * scale / (tile.width * tile.height));
+        for (int h = 0; h < tile.height; h++) {
+            int offset = (tile.y + h) * width + tile.x;
+            for (int w = 0; w < tile.width; w++) {
+                iterations[offset + w] = (int) Math.round(counts[h * tile.width + w] * scale);
+                nanos[offset + w] = share;
+            }
+        }
+        paintOverlay(tile.x, tile.y, tile.width, tile.height);
+    }
+
+    // rows of `mirror` repeat the counts of their conjugate rows in `tile`, recorded before
+    public void recordMirror(Rectangle tile, Rectangle mirror, ConjugateSymmetry symmetry) {
+        for (int h = mirror.y; h < mirror.y + mirror.height; h++) {
+            System.arraycopy(iterations, symmetry.source(h) * width + tile.x, iterations, h * width + tile.x, tile.width);
+        }
+        paintOverlay(mirror.x, mirror.y, mirror.width, mirror.height);
+    }
+
+    // set by the renderer once every tile is in, a partial map says nothing about the tiles it lacks
+    public volatile boolean complete;
+
+    public boolean matches(RunTask task) {
+        return complete && task.width == width && task.height == height && task.maxIterations == maxIterations
+                && task.getMinX == viewPort.getMinX() && task.getMaxY == viewPort.getMaxY()
+                && task.getWidth == viewPort.getWidth() && task.getHeight == viewPort.getHeight()
+                && task.getMinXLo == PreciseViewPort.minXLo(viewPort) && task.getMaxYLo == PreciseViewPort.maxYLo(viewPort)
+                && kernel.equals(task.kernel);
+    }
+
+    // TileCost units from the recorded iterations, NaN when the task is not over this map's frame
+    public double estimate(RunTask task) {
+        if (!matches(task)) {
+            return Double.NaN;
+        }
+        long sum = 0;
+        for (int h = task.tileY; h < task.tileY + task.tileHeight; h++) {
+            for (int w = task.tileX; w < task.tileX + task.tileWidth; w++) {
+                sum += iterations[h * width + w];
+            }
+        }
+        double pixels = (double) task.tileWidth * task.tileHeight;
+        return ((double) sum / superSamples + TileCost.SAMPLE_OVERHEAD * pixels) * (task.superSamples - task.firstSample);
+    }
+
+    // log-scaled iterations, blue for cheap through red for pixels that never escaped, half transparent; pixels not
+    // recorded yet are clear
+    public synchronized void drawOverlay(Graphics2D g2) {
+        g2.drawImage(overlay, 0, 0, null);
+    }
+
+    private void paintOverlay(int x, int y, int w, int h) {
+        int[] argb = new int[w * h];
+        for (int row = 0; row < h; row++) {
+            for (int column = 0; column < w; column++) {
+                float t = (float) Math.min(1, Math.log1p(iterations[(y + row) * width + x + column]) * overlayScale);
+                argb[row * w + column] = (0xa0 << 24) | (Color.HSBtoRGB((1 - t) * 2 / 3f, 1, 1) & 0xffffff);
+            }
+        }
+        synchronized (this) {
+            overlay.setRGB(x, y, w, h, argb, 0, w);
+        }
+    }
+
+    // x,y,iterations,nanos, one line per pixel
+    public void writeCsv(File file) throws IOException {
+        PrintWriter out = new PrintWriter(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        try {
+            out.println("x,y,iterations,nanos");
+            for (int h = 0; h < height; h++) {
+                for (int w = 0; w < width; w++) {
+                    out.printf("%d,%d,%d,%.1f\n", w, h, iterations[h * width + w], nanos[h * width + w]);
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    // big-endian: int width, int height, int maxIterations, int superSamples, double minX, maxY, viewWidth, viewHeight,
+    // then width * height int iterations and width * height float nanos, both row-major
+    public void writeRaw(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        try {
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeInt(maxIterations);
+            out.writeInt(superSamples);
+            out.writeDouble(viewPort.getMinX());
+            out.writeDouble(viewPort.getMaxY());
+            out.writeDouble(viewPort.getWidth());
+            out.writeDouble(viewPort.getHeight());
+            for (int count : iterations) {
+                out.writeInt(count);
+            }
+            for (float time : nanos) {
+                out.writeFloat(time);
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
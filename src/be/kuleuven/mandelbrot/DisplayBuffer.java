@@ -0,0 +1,71 @@
+package be.kuleuven.mandelbrot;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+
+// Screen-side copy of the render target. Renderers keep writing into their TYPE_INT_ARGB image, only the regions
+// reported through damage() are uploaded into an accelerated VolatileImage, and every paint is a plain blit of the
+// clip rectangle from it. Only to be used on the event dispatch thread.
+public class DisplayBuffer {
+    private final JComponent owner;
+    private final int width, height;
+    private VolatileImage buffer;
+    private Rectangle dirty;
+
+    public DisplayBuffer(JComponent owner, int width, int height) {
+        this.owner = owner;
+        this.width = width;
+        this.height = height;
+        this.dirty = new Rectangle(0, 0, width, height);
+    }
+
+    // source pixels in r changed: upload them on the next paint and repaint just that area
+    public void damage(Rectangle r) {
+        Rectangle clipped = r.intersection(new Rectangle(0, 0, width, height));
+        if (clipped.isEmpty()) {
+            return;
+        }
+        dirty = dirty.isEmpty() ? clipped : dirty.union(clipped);
+        owner.repaint(clipped);
+    }
+
+    public void damageAll() {
+        damage(new Rectangle(0, 0, width, height));
+    }
+
+    public void paint(Graphics2D g, BufferedImage source) {
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle(0, 0, width, height);
+        }
+        GraphicsConfiguration gc = owner.getGraphicsConfiguration();
+        if (gc == null) {
+            g.drawImage(source, 0, 0, null);
+            return;
+        }
+        do {
+            int state = buffer == null ? VolatileImage.IMAGE_INCOMPATIBLE : buffer.validate(gc);
+            if (state == VolatileImage.IMAGE_INCOMPATIBLE) {
+                if (buffer != null) {
+                    buffer.flush();
+                }
+                buffer = gc.createCompatibleVolatileImage(width, height);
+            }
+            if (state != VolatileImage.IMAGE_OK) {
+                dirty = new Rectangle(0, 0, width, height);
+            }
+            if (!dirty.isEmpty()) {
+                Graphics2D bg = buffer.createGraphics();
+                bg.setComposite(AlphaComposite.Src);
+                bg.drawImage(source, dirty.x, dirty.y, dirty.x + dirty.width, dirty.y + dirty.height,
+                        dirty.x, dirty.y, dirty.x + dirty.width, dirty.y + dirty.height, null);
+                bg.dispose();
+                dirty = new Rectangle();
+            }
+            g.drawImage(buffer, clip.x, clip.y, clip.x + clip.width, clip.y + clip.height,
+                    clip.x, clip.y, clip.x + clip.width, clip.y + clip.height, null);
+        } while (buffer.contentsLost());
+    }
+}
@@ -0,0 +1,39 @@
+package be.kuleuven.mandelbrot;
+
+import java.awt.geom.Rectangle2D;
+
+// The formulas the renderers can draw. Only the Mandelbrot set has precision tiers, the others run in double.
+public enum Formula {
+    MANDELBROT("Mandelbrot"),
+    JULIA("Julia"),
+    MULTIBROT_3("Multibrot z^3"),
+    MULTIBROT_4("Multibrot z^4"),
+    BURNING_SHIP("Burning Ship");
+
+    private final String label;
+
+    Formula(String label) {
+        this.label = label;
+    }
+
+    // kernel for a viewport rendered at width x height pixels, (cRe, cIm) is only used by Julia sets
+    public FractalKernel kernel(Rectangle2D viewPort, int width, int height, double cRe, double cIm) {
+        switch (this) {
+            case JULIA:
+                return new JuliaKernel(cRe, cIm);
+            case MULTIBROT_3:
+                return new Multibrot3Kernel();
+            case MULTIBROT_4:
+                return new Multibrot4Kernel();
+            case BURNING_SHIP:
+                return new BurningShipKernel();
+            default:
+                return PrecisionTier.select(viewPort.getMinX(), viewPort.getMaxY(), viewPort.getWidth(), viewPort.getHeight(), width, height);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}
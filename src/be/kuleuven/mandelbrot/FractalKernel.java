@@ -0,0 +1,19 @@
+package be.kuleuven.mandelbrot;
+
+import java.io.Serializable;
+
+// One escape time formula in one arithmetic. Renderers only see this interface; every implementation is a separate final
+// class (or enum constant) with its own hand-expanded loop, so the JIT compiles each inner loop for exactly one formula.
+// c is the pixel coordinate as a double-double (hi + lo), kernels use as much of it as their arithmetic can hold.
+// Kernels are equal exactly when they draw the same image, which is how renderers tell one frame from another;
+// label() is for display only.
+public interface FractalKernel extends Serializable {
+
+    // number of iterations before escape, maxIterations when the orbit stays bounded
+    int iterate(double cxHi, double cxLo, double cyHi, double cyLo, int maxIterations);
+
+    // true if the image is mirror symmetric about the real axis, see ConjugateSymmetry
+    boolean conjugateSymmetric();
+
+    String label();
+}
@@ -0,0 +1,66 @@
+package be.kuleuven.mandelbrot;
+
+import org.jppf.client.JPPFClient;
+import org.jppf.client.JPPFClientConnectionStatus;
+
+// Creates the JPPFClient on a thread of its own, reading the configuration and connecting to the driver can take a while
+// and must not hold up the window. ready() tells whether a driver connection is up to take work right now; it is false
+// until the first connection pool is working and whenever every pool has dropped, so callers render locally meanwhile.
+public class GridConnection {
+    private volatile JPPFClient client;
+    private volatile boolean closed;
+    private volatile Throwable failure;
+
+    public void start() {
+        Thread connector = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    JPPFClient created = new JPPFClient();
+                    synchronized (GridConnection.this) {
+                        if (closed) {
+                            created.close();
+                            return;
+                        }
+                        client = created;
+                    }
+                } catch (Throwable t) {
+                    failure = t;
+                    t.printStackTrace();
+                }
+            }
+        }, "JPPF client startup");
+        connector.setDaemon(true);
+        connector.start();
+    }
+
+    // the client once it is created, null before that
+    public JPPFClient client() {
+        return client;
+    }
+
+    public boolean ready() {
+        JPPFClient current = client;
+        return current != null && !current.isClosed()
+                && !current.findConnectionPools(JPPFClientConnectionStatus.workingStatuses()).isEmpty();
+    }
+
+    public String status() {
+        if (failure != null) {
+            return "Grid: failed, local";
+        }
+        JPPFClient current = client;
+        if (current == null) {
+            return "Grid: starting, local";
+        }
+        int pools = current.findConnectionPools(JPPFClientConnectionStatus.workingStatuses()).size();
+        return pools == 0 ? "Grid: no driver, local" : String.format("Grid: %d driver%s", pools, pools == 1 ? "" : "s");
+    }
+
+    public synchronized void close() {
+        closed = true;
+        if (client != null) {
+            client.close();
+        }
+    }
+}
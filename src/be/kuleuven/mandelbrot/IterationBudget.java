@@ -0,0 +1,63 @@
+package be.kuleuven.mandelbrot;
+
+import java.awt.geom.Rectangle2D;
+
+// Picks maxIterations for a viewport instead of a fixed cap. A starting limit is derived from the zoom depth, then a coarse
+// probe grid is iterated with doubling limits until doubling no longer turns a meaningful fraction of the probes from
+// "inside" into "escaped". Deep, detailed views get a high limit, shallow or mostly-exterior views stay cheap.
+public class IterationBudget {
+    public static final int MIN_ITERATIONS = 100, MAX_ITERATIONS = 1 << 17;
+
+    private static final int PROBE_COLUMNS = 64, PROBE_ROWS = 48;
+    // stop once fewer than this fraction of the probes change classification when the limit doubles
+    private static final double CHANGE_THRESHOLD = 0.002;
+
+    public static int estimate(FractalKernel kernel, Rectangle2D.Double viewPort) {
+        double depth = Math.max(0, Math.log10(3.5 / viewPort.getWidth()));
+        int limit = (int) Math.min(MAX_ITERATIONS, Math.max(MIN_ITERATIONS, 100 * Math.pow(1 + depth, 1.5)));
+
+        double minX = viewPort.getMinX(), minXLo = PreciseViewPort.minXLo(viewPort);
+        double maxY = viewPort.getMaxY(), maxYLo = PreciseViewPort.maxYLo(viewPort);
+
+        int probes = PROBE_COLUMNS * PROBE_ROWS;
+        double[] cx = new double[2 * probes], cy = new double[2 * probes];
+        for (int j = 0; j < PROBE_ROWS; j++) {
+            for (int i = 0; i < PROBE_COLUMNS; i++) {
+                int p = 2 * (j * PROBE_COLUMNS + i);
+                double dx = (i + .5) / PROBE_COLUMNS * viewPort.getWidth();
+                double dy = -(j + .5) / PROBE_ROWS * viewPort.getHeight();
+                cx[p] = minX + dx;
+                cx[p + 1] = PrecisionTier.twoSumError(minX, dx, cx[p]) + minXLo;
+                cy[p] = maxY + dy;
+                cy[p + 1] = PrecisionTier.twoSumError(maxY, dy, cy[p]) + maxYLo;
+            }
+        }
+
+        // probes still inside at the current limit, only those are re-run with the doubled limit
+        int[] inside = new int[probes];
+        int insideCount = 0;
+        for (int p = 0; p < probes; p++) {
+            if (kernel.iterate(cx[2 * p], cx[2 * p + 1], cy[2 * p], cy[2 * p + 1], limit) >= limit) {
+                inside[insideCount++] = p;
+            }
+        }
+
+        while (limit < MAX_ITERATIONS && insideCount > 0) {
+            int next = Math.min(MAX_ITERATIONS, 2 * limit);
+            int stillInside = 0;
+            for (int k = 0; k < insideCount; k++) {
+                int p = inside[k];
+                if (kernel.iterate(cx[2 * p], cx[2 * p + 1], cy[2 * p], cy[2 * p + 1], next) >= next) {
+                    inside[stillInside++] = p;
+                }
+            }
+            int changed = insideCount - stillInside;
+            insideCount = stillInside;
+            if (changed < CHANGE_THRESHOLD * probes) {
+                break;
+            }
+            limit = next;
+        }
+        return limit;
+    }
+}
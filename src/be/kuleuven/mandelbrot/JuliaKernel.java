@@ -0,0 +1,49 @@
+package be.kuleuven.mandelbrot;
+
+// z -> z^2 + c for a fixed c, the pixel is the starting point z0
+public final class JuliaKernel implements FractalKernel {
+    private final double cRe, cIm;
+
+    public JuliaKernel(double cRe, double cIm) {
+        this.cRe = cRe;
+        this.cIm = cIm;
+    }
+
+    @Override
+    public int iterate(double cxHi, double cxLo, double cyHi, double cyLo, int maxIterations) {
+        double x = cxHi + cxLo, y = cyHi + cyLo;
+        int iteration = 0;
+        while (x * x + y * y < 4 && iteration < maxIterations) {
+            double xtemp = x * x - y * y + cRe;
+            y = 2 * x * y + cIm;
+            x = xtemp;
+            iteration++;
+        }
+        return iteration;
+    }
+
+    @Override
+    public boolean conjugateSymmetric() {
+        // for real c the conjugate orbit is the conjugate of the orbit
+        return cIm == 0;
+    }
+
+    @Override
+    public String label() {
+        return String.format("Julia %.4f%+.4fi", cRe, cIm);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof JuliaKernel)) {
+            return false;
+        }
+        JuliaKernel julia = (JuliaKernel) other;
+        return Double.compare(cRe, julia.cRe) == 0 && Double.compare(cIm, julia.cIm) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Double.hashCode(cRe) + Double.hashCode(cIm);
+    }
+}
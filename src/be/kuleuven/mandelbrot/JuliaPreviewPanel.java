@@ -0,0 +1,93 @@
+package be.kuleuven.mandelbrot;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.geom.Rectangle2D;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Side pane showing the Julia set for the point under the cursor. Requests are latest-wins: while one frame renders only
+// the newest cursor position is kept, everything in between is dropped. Rendering uses THREADS threads of its own and a
+// 16 ms budget; the viewers size their render pools to the cores that are left, so it neither blocks the EDT nor competes
+// with the main render. On machines with one or two cores the pools have to share.
+public class JuliaPreviewPanel extends JPanel {
+    public static final int THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 4);
+    // what the viewers' render pools may use next to the preview
+    public static final int RENDER_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() - THREADS);
+    private static final int BUDGET_MILLIS = 16, ITERATIONS = 200;
+    private static final Rectangle2D.Double VIEW_PORT = new Rectangle2D.Double(-1.6, -1.2, 3.2, 2.4);
+
+    private final PreviewRenderer renderer;
+    private final ExecutorService dispatcher = Executors.newSingleThreadExecutor();
+    private final AtomicReference<double[]> pending = new AtomicReference<>();
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    // last finished frame and its constant, only touched on the EDT
+    private PreviewRenderer.Frame frame;
+    private double frameRe, frameIm;
+
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                double[] c;
+                while ((c = pending.getAndSet(null)) != null) {
+                    final PreviewRenderer.Frame rendered = renderer.render(VIEW_PORT, Formula.JULIA, c[0], c[1], ITERATIONS, 1);
+                    final double re = c[0], im = c[1];
+                    SwingUtilities.invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            frame = rendered;
+                            frameRe = re;
+                            frameIm = im;
+                            repaint();
+                        }
+                    });
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            } finally {
+                running.set(false);
+                // a request may have arrived between the last poll and clearing the flag
+                if (pending.get() != null && running.compareAndSet(false, true)) {
+                    dispatcher.submit(this);
+                }
+            }
+        }
+    };
+
+    public JuliaPreviewPanel(int width, int height) {
+        renderer = new PreviewRenderer(width, height, BUDGET_MILLIS, THREADS, Thread.MIN_PRIORITY);
+        setPreferredSize(new Dimension(width, height));
+        setMinimumSize(new Dimension(width, height));
+        setBackground(Color.BLACK);
+    }
+
+    // called from mouseMoved, returns immediately
+    public void follow(double cRe, double cIm) {
+        pending.set(new double[]{cRe, cIm});
+        if (running.compareAndSet(false, true)) {
+            dispatcher.submit(drain);
+        }
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        if (frame == null) {
+            return;
+        }
+        Graphics2D g2 = (Graphics2D) g;
+        g2.drawImage(frame.image, 0, 0, frame.image.getWidth() * frame.scale, frame.image.getHeight() * frame.scale, null);
+        g2.setColor(Color.WHITE);
+        g2.drawString(String.format("c = %.4f %+.4fi", frameRe, frameIm), 4, getHeight() - 18);
+        g2.drawString(String.format("1/%d res, %d ms", frame.scale, frame.nanos / 1000000), 4, getHeight() - 4);
+    }
+
+    public void shutdown() {
+        dispatcher.shutdownNow();
+        renderer.shutdown();
+    }
+}
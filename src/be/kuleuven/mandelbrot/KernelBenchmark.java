@@ -0,0 +1,88 @@
+package be.kuleuven.mandelbrot;
+
+// Compares the FractalKernel path with the escape loop as it was hand-written in the viewer before kernels existed.
+// All kernels run through the same call site first, so the interface call is measured in its megamorphic state.
+// usage: KernelBenchmark [width height maxIterations rounds]
+public class KernelBenchmark {
+
+    private static final double MIN_X = -2.5, MAX_Y = 1, VIEW_WIDTH = 3.5, VIEW_HEIGHT = 2;
+
+    public static void main(String... args) {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int height = args.length > 1 ? Integer.parseInt(args[1]) : 768;
+        int maxIterations = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+        FractalKernel[] kernels = {PrecisionTier.FLOAT, PrecisionTier.DOUBLE, PrecisionTier.FIXED_POINT, PrecisionTier.DOUBLE_DOUBLE,
+                new JuliaKernel(-0.8, 0.156), new Multibrot3Kernel(), new Multibrot4Kernel(), new BurningShipKernel()};
+
+        // warm up both paths, every kernel through the shared call site
+        for (FractalKernel kernel : kernels) {
+            viaKernel(kernel, width / 4, height / 4, maxIterations);
+        }
+        handWritten(width / 4, height / 4, maxIterations);
+
+        long baseline = Long.MAX_VALUE, kernel = Long.MAX_VALUE;
+        long iterations = 0;
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            iterations = handWritten(width, height, maxIterations);
+            baseline = Math.min(baseline, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            long checked = viaKernel(PrecisionTier.DOUBLE, width, height, maxIterations);
+            kernel = Math.min(kernel, System.nanoTime() - start);
+            if (checked != iterations) {
+                throw new IllegalStateException(String.format("Kernel computed %d iterations, hand-written loop %d", checked, iterations));
+            }
+        }
+        System.out.printf("%d x %d, %d iterations max, best of %d rounds\n", width, height, maxIterations, rounds);
+        System.out.printf("%-32s %8.1f ms  %6.3f ns/iteration\n", "hand-written loop", baseline / 1e6, (double) baseline / iterations);
+        System.out.printf("%-32s %8.1f ms  %6.3f ns/iteration  (%+.1f%%)\n", PrecisionTier.DOUBLE.label(), kernel / 1e6,
+                (double) kernel / iterations, 100.0 * (kernel - baseline) / baseline);
+
+        for (FractalKernel k : kernels) {
+            long start = System.nanoTime();
+            long total = viaKernel(k, width, height, maxIterations);
+            long nanos = System.nanoTime() - start;
+            System.out.printf("%-32s %8.1f ms  %6.3f ns/iteration\n", k.label(), nanos / 1e6, (double) nanos / Math.max(1, total));
+        }
+    }
+
+    private static long viaKernel(FractalKernel kernel, int width, int height, int maxIterations) {
+        long total = 0;
+        for (int w = 0; w < width; w++) {
+            for (int h = 0; h < height; h++) {
+                double dx = (w + .5) / width * VIEW_WIDTH;
+                double dy = -(h + 0.5) / height * VIEW_HEIGHT;
+                double x0 = MIN_X + dx, y0 = MAX_Y + dy;
+                total += kernel.iterate(x0, PrecisionTier.twoSumError(MIN_X, dx, x0), y0, PrecisionTier.twoSumError(MAX_Y, dy, y0), maxIterations);
+            }
+        }
+        return total;
+    }
+
+    private static long handWritten(int width, int height, int maxIterations) {
+        long total = 0;
+        for (int w = 0; w < width; w++) {
+            for (int h = 0; h < height; h++) {
+                double x0 = MIN_X + (w + .5) / width * VIEW_WIDTH;
+                double y0 = MAX_Y - (h + 0.5) / height * VIEW_HEIGHT;
+                double x = 0;
+                double y = 0;
+
+                long iteration = 0;
+                long max_iteration = maxIterations;
+
+                while (x * x + y * y < 4 && iteration < max_iteration) {
+                    double xtemp = x * x - y * y + x0;
+                    y = 2 * x * y + y0;
+                    x = xtemp;
+                    iteration++;
+                }
+                total += iteration;
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,175 @@
+package be.kuleuven.mandelbrot;
+
+import org.jppf.client.JPPFJob;
+import org.jppf.load.balancer.AbstractAdaptiveBundler;
+import org.jppf.load.balancer.Bundler;
+import org.jppf.load.balancer.impl.FixedSizeBundler;
+import org.jppf.load.balancer.impl.FixedSizeProfile;
+import org.jppf.load.balancer.impl.ProportionalBundler;
+import org.jppf.load.balancer.impl.ProportionalProfile;
+import org.jppf.utils.TypedProperties;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+// Compares bundlers on the column tasks of one viewer frame, dispatched to N simulated nodes. Every task is run once for
+// real to measure its cost; the dispatch itself runs in virtual time, with the bundlers as JPPF would drive them: each idle
+// node asks its own bundler for a size, takes that many tasks from the head of the job and feeds the elapsed time back.
+// Nodes alternate between full and half speed with -mixed, and every bundle pays a fixed transfer overhead.
+// usage: LoadBalancerBenchmark [width height maxIterations] [-viewport x y w h] [-mixed] [-overhead ms]
+public class LoadBalancerBenchmark {
+    private static final int[] NODES = {1, 2, 4, 8, 16};
+    private static final String[] ALGORITHMS = {"manual 1000000", "manual 64", "proportional", "tilecost"};
+
+    public static void main(String... args) throws Exception {
+        int width = 1024, height = 768, maxIterations = 1000;
+        Rectangle2D.Double viewPort = new Rectangle2D.Double(-2.5, -1, 3.5, 2);
+        boolean mixed = false;
+        double overheadNanos = 5e6;
+        int positional = 0;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-viewport":
+                    viewPort = new Rectangle2D.Double(Double.parseDouble(args[++i]), Double.parseDouble(args[++i]),
+                            Double.parseDouble(args[++i]), Double.parseDouble(args[++i]));
+                    break;
+                case "-mixed":
+                    mixed = true;
+                    break;
+                case "-overhead":
+                    overheadNanos = Double.parseDouble(args[++i]) * 1e6;
+                    break;
+                default:
+                    int value = Integer.parseInt(args[i]);
+                    if (positional == 0) {
+                        width = value;
+                    } else if (positional == 1) {
+                        height = value;
+                    } else {
+                        maxIterations = value;
+                    }
+                    positional++;
+            }
+        }
+
+        FractalKernel kernel = Formula.MANDELBROT.kernel(viewPort, width, height, 0, 0);
+        List<RunTask> tasks = new ArrayList<>();
+        for (int w = 0; w < width; w++) {
+            RunTask task = new RunTask(maxIterations, 1, viewPort.getMinX(), viewPort.getMaxY(), viewPort.getWidth(), viewPort.getHeight(), w, width, height);
+            task.kernel = kernel;
+            tasks.add(task);
+        }
+
+        long startTime = System.nanoTime();
+        double[] hints = TileCost.estimate(tasks);
+        long hintNanos = System.nanoTime() - startTime;
+        double[] actual = new double[tasks.size()];
+        double serial = 0;
+        for (int i = 0; i < tasks.size(); i++) {
+            tasks.get(i).run();
+            actual[i] = tasks.get(i).nanos;
+            serial += actual[i];
+        }
+        System.out.printf("%d column tasks, %.1f ms of work on one node, cost hints took %.1f ms, bundle overhead %.1f ms, %s nodes\n",
+                tasks.size(), serial / 1e6, hintNanos / 1e6, overheadNanos / 1e6, mixed ? "mixed speed" : "equal");
+        System.out.printf("%-16s %5s %10s %8s %8s %8s %8s\n", "algorithm", "nodes", "makespan", "speedup", "min util", "max util", "bundles");
+
+        for (String algorithm : ALGORITHMS) {
+            for (int nodes : NODES) {
+                JPPFJob job = new JPPFJob();
+                for (RunTask task : tasks) {
+                    job.add(task);
+                }
+                TileCostBundler.attachCosts(job, hints);
+                simulate(algorithm, nodes, mixed, overheadNanos, job, actual, serial);
+            }
+        }
+    }
+
+    private static class Node implements Comparable<Node> {
+        Bundler<?> bundler;
+        double speed, freeAt, busy;
+        int pendingSize;
+        double pendingTime;
+
+        @Override
+        public int compareTo(Node other) {
+            return Double.compare(freeAt, other.freeAt);
+        }
+    }
+
+    private static void simulate(String algorithm, int nodes, boolean mixed, double overheadNanos, JPPFJob job, double[] actual, double serial) {
+        PriorityQueue<Node> idle = new PriorityQueue<>();
+        List<Node> all = new ArrayList<>();
+        for (int i = 0; i < nodes; i++) {
+            Node node = new Node();
+            node.bundler = createBundler(algorithm);
+            node.bundler.setup();
+            node.speed = mixed && i % 2 == 1 ? 0.5 : 1;
+            idle.add(node);
+            all.add(node);
+        }
+
+        int cursor = 0, bundles = 0;
+        double makespan = 0;
+        while (!idle.isEmpty()) {
+            Node node = idle.poll();
+            if (node.pendingSize > 0) {
+                node.bundler.feedback(node.pendingSize, node.pendingTime);
+                node.pendingSize = 0;
+            }
+            if (cursor == actual.length) {
+                makespan = Math.max(makespan, node.freeAt);
+                continue;
+            }
+            if (node.bundler instanceof AbstractAdaptiveBundler) {
+                ((AbstractAdaptiveBundler<?>) node.bundler).setJob(job);
+            }
+            int size = Math.max(1, Math.min(node.bundler.getBundleSize(), actual.length - cursor));
+            double work = 0;
+            for (int i = cursor; i < cursor + size; i++) {
+                work += actual[i];
+            }
+            cursor += size;
+            bundles++;
+            double time = work / node.speed + overheadNanos;
+            node.pendingSize = size;
+            node.pendingTime = time;
+            node.busy += work / node.speed;
+            node.freeAt += time;
+            idle.add(node);
+        }
+
+        double minUtil = 1, maxUtil = 0;
+        for (Node node : all) {
+            node.bundler.dispose();
+            minUtil = Math.min(minUtil, node.busy / makespan);
+            maxUtil = Math.max(maxUtil, node.busy / makespan);
+        }
+        System.out.printf("%-16s %5d %8.1fms %7.2fx %7.0f%% %7.0f%% %8d\n", algorithm, nodes, makespan / 1e6, serial / makespan,
+                100 * minUtil, 100 * maxUtil, bundles);
+    }
+
+    static Bundler<?> createBundler(String algorithm) {
+        TypedProperties config = new TypedProperties();
+        switch (algorithm) {
+            case "manual 1000000":
+                config.setInt("size", 1000000);
+                return new FixedSizeBundler(new FixedSizeProfile(config));
+            case "manual 64":
+                config.setInt("size", 64);
+                return new FixedSizeBundler(new FixedSizeProfile(config));
+            case "proportional":
+                // the proportional_profile of config/jppf.properties
+                config.setInt("initialSize", 5);
+                config.setDouble("initialMeanTime", 1e10);
+                config.setInt("performanceCacheSize", 300);
+                config.setInt("proportionalityFactor", 1);
+                return new ProportionalBundler(new ProportionalProfile(config));
+            default:
+                return new TileCostBundler(new TileCostBundler.Profile(config));
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package be.kuleuven.mandelbrot;
+
+import org.jppf.client.JPPFJob;
+import org.jppf.load.balancer.AbstractAdaptiveBundler;
+import org.jppf.load.balancer.Bundler;
+
+import java.awt.geom.Rectangle2D;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Scaling benchmark for the grid path on a single machine. Starts N node processes from the same classpath, or N node
+// threads with -inprocess, and pushes a fixed set of frames through them the way the driver would: every node asks its own
+// JPPF bundler for a bundle size, the bundle of RunTasks is serialized, executed on the node and sent back serialized.
+// Nodes talk over their stdin/stdout pipes, so nothing touches the network. Reports throughput, per-node utilisation and
+// the share of time spent serializing, for every node count.
+// usage: LocalGridHarness [-nodes 1,2,4] [-threads perNode] [-balancer tilecost|"manual 64"|...] [-size w h] [-iterations n] [-inprocess]
+public class LocalGridHarness {
+
+    private static final Rectangle2D.Double[] FRAMES = {
+            new Rectangle2D.Double(-2.5, -1, 3.5, 2),
+            new Rectangle2D.Double(-0.76, 0.08, 0.04, 0.03),
+            new Rectangle2D.Double(-0.1, 0.85, 0.2, 0.15),
+            new Rectangle2D.Double(-1.8, -0.1, 0.2, 0.15)};
+
+    private abstract static class Node {
+        Bundler<?> bundler;
+        int bundles;
+        long executeNanos, serializeNanos, bytes;
+
+        // sends one serialized bundle and returns the serialized reply; node side deserialize, execute and serialize times go in `timings`
+        abstract byte[] exchange(byte[] request, long[] timings) throws Exception;
+
+        abstract void close() throws Exception;
+    }
+
+    private static class ProcessNode extends Node {
+        private final Process process;
+        private final DataOutputStream out;
+        private final DataInputStream in;
+
+        ProcessNode(int threads) throws IOException {
+            String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+            process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), LocalGridHarness.class.getName(),
+                    "-node", Integer.toString(threads)).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+            in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+        }
+
+        @Override
+        byte[] exchange(byte[] request, long[] timings) throws IOException {
+            out.writeInt(request.length);
+            out.write(request);
+            out.flush();
+            for (int i = 0; i < timings.length; i++) {
+                timings[i] = in.readLong();
+            }
+            byte[] reply = new byte[in.readInt()];
+            in.readFully(reply);
+            return reply;
+        }
+
+        @Override
+        void close() throws Exception {
+            out.writeInt(-1);
+            out.flush();
+            process.waitFor();
+        }
+    }
+
+    private static class ThreadNode extends Node {
+        private final ExecutorService pool;
+
+        ThreadNode(int threads) {
+            pool = Executors.newFixedThreadPool(threads);
+        }
+
+        @Override
+        byte[] exchange(byte[] request, long[] timings) throws Exception {
+            return serve(request, timings, pool);
+        }
+
+        @Override
+        void close() {
+            pool.shutdownNow();
+        }
+    }
+
+    // what a node does with one bundle: deserialize, run the tasks on its threads, serialize them back
+    @SuppressWarnings("unchecked")
+    private static byte[] serve(byte[] request, long[] timings, ExecutorService pool) throws Exception {
+        long start = System.nanoTime();
+        List<RunTask> tasks = (List<RunTask>) new ObjectInputStream(new ByteArrayInputStream(request)).readObject();
+        long deserialized = System.nanoTime();
+        List<Future<?>> futures = new ArrayList<>();
+        for (RunTask task : tasks) {
+            futures.add(pool.submit(task));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        long executed = System.nanoTime();
+        byte[] reply = serialize(tasks);
+        timings[0] = deserialized - start;
+        timings[1] = executed - deserialized;
+        timings[2] = System.nanoTime() - executed;
+        return reply;
+    }
+
+    private static byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(object);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static void runNode(int threads) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(System.out));
+        try {
+            int length;
+            while ((length = in.readInt()) >= 0) {
+                byte[] request = new byte[length];
+                in.readFully(request);
+                long[] timings = new long[3];
+                byte[] reply = serve(request, timings, pool);
+                for (long timing : timings) {
+                    out.writeLong(timing);
+                }
+                out.writeInt(reply.length);
+                out.write(reply);
+                out.flush();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    public static void main(String... args) throws Exception {
+        if (args.length == 2 && args[0].equals("-node")) {
+            runNode(Integer.parseInt(args[1]));
+            return;
+        }
+        String[] nodeCounts = {"1", "2", "4"};
+        int threads = 1, width = 640, height = 480, maxIterations = 500;
+        String balancer = "tilecost";
+        boolean inProcess = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-nodes":
+                    nodeCounts = args[++i].split(",");
+                    break;
+                case "-threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "-balancer":
+                    balancer = args[++i];
+                    break;
+                case "-size":
+                    width = Integer.parseInt(args[++i]);
+                    height = Integer.parseInt(args[++i]);
+                    break;
+                case "-iterations":
+                    maxIterations = Integer.parseInt(args[++i]);
+                    break;
+                case "-inprocess":
+                    inProcess = true;
+                    break;
+                default:
+                    System.out.println("usage: LocalGridHarness [-nodes 1,2,4] [-threads perNode] [-balancer tilecost|\"manual 64\"|...] [-size w h] [-iterations n] [-inprocess]");
+                    System.exit(1);
+            }
+        }
+
+        System.out.printf("%d frames of %d x %d, %d iterations, %s nodes with %d thread(s), %s bundler, %d cores\n", FRAMES.length, width, height,
+                maxIterations, inProcess ? "in-process" : "process", threads, balancer, Runtime.getRuntime().availableProcessors());
+        System.out.printf("%5s %10s %10s %8s %8s %8s %10s %8s\n", "nodes", "wall", "Mpixel/s", "speedup", "min util", "max util", "serialize", "MB");
+        double baseline = 0;
+        for (String count : nodeCounts) {
+            int nodes = Integer.parseInt(count.trim());
+            List<Node> grid = new ArrayList<>();
+            for (int i = 0; i < nodes; i++) {
+                Node node = inProcess ? new ThreadNode(threads) : new ProcessNode(threads);
+                node.bundler = LoadBalancerBenchmark.createBundler(balancer);
+                node.bundler.setup();
+                grid.add(node);
+            }
+            try {
+                // one untimed pass so every node has loaded and compiled the kernels
+                runFrames(grid, width / 4, height / 4, maxIterations);
+                for (Node node : grid) {
+                    node.bundles = 0;
+                    node.executeNanos = node.serializeNanos = node.bytes = 0;
+                }
+
+                long start = System.nanoTime();
+                runFrames(grid, width, height, maxIterations);
+                long wall = System.nanoTime() - start;
+
+                double minUtil = 1, maxUtil = 0, serialize = 0, execute = 0, bytes = 0;
+                for (Node node : grid) {
+                    minUtil = Math.min(minUtil, (double) node.executeNanos / wall);
+                    maxUtil = Math.max(maxUtil, (double) node.executeNanos / wall);
+                    serialize += node.serializeNanos;
+                    execute += node.executeNanos;
+                    bytes += node.bytes;
+                }
+                double throughput = (double) FRAMES.length * width * height / (wall / 1e9) / 1e6;
+                if (baseline == 0) {
+                    baseline = throughput;
+                }
+                System.out.printf("%5d %8.1fms %10.2f %7.2fx %7.0f%% %7.0f%% %9.1f%% %8.1f\n", nodes, wall / 1e6, throughput, throughput / baseline,
+                        100 * minUtil, 100 * maxUtil, 100 * serialize / (serialize + execute), bytes / 1e6);
+            } finally {
+                for (Node node : grid) {
+                    node.bundler.dispose();
+                    node.close();
+                }
+            }
+        }
+    }
+
+    private static void runFrames(final List<Node> grid, int width, int height, int maxIterations) throws Exception {
+        ExecutorService dispatchers = Executors.newFixedThreadPool(grid.size());
+        try {
+            for (Rectangle2D.Double viewPort : FRAMES) {
+                FractalKernel kernel = Formula.MANDELBROT.kernel(viewPort, width, height, 0, 0);
+                final List<RunTask> tasks = new ArrayList<>();
+                final JPPFJob job = new JPPFJob();
+                for (int w = 0; w < width; w++) {
+                    RunTask task = new RunTask(maxIterations, 1, viewPort.getMinX(), viewPort.getMaxY(), viewPort.getWidth(), viewPort.getHeight(), w, width, height);
+                    task.kernel = kernel;
+                    tasks.add(task);
+                    job.add(task);
+                }
+                TileCostBundler.attachCosts(job, TileCost.estimate(tasks));
+
+                final int[] argb = new int[width * height];
+                final int[] cursor = {0};
+                final int frameWidth = width;
+                List<Future<Void>> futures = new ArrayList<>();
+                for (final Node node : grid) {
+                    futures.add(dispatchers.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            while (true) {
+                                List<RunTask> bundle;
+                                synchronized (cursor) {
+                                    if (cursor[0] == tasks.size()) {
+                                        return null;
+                                    }
+                                    if (node.bundler instanceof AbstractAdaptiveBundler) {
+                                        ((AbstractAdaptiveBundler<?>) node.bundler).setJob(job);
+                                    }
+                                    int size = Math.max(1, Math.min(node.bundler.getBundleSize(), tasks.size() - cursor[0]));
+                                    bundle = new ArrayList<>(tasks.subList(cursor[0], cursor[0] + size));
+                                    cursor[0] += size;
+                                }
+                                long start = System.nanoTime();
+                                byte[] request = serialize(bundle);
+                                long serialized = System.nanoTime();
+                                long[] timings = new long[3];
+                                byte[] reply = node.exchange(request, timings);
+                                long received = System.nanoTime();
+                                @SuppressWarnings("unchecked")
+                                List<RunTask> results = (List<RunTask>) new ObjectInputStream(new ByteArrayInputStream(reply)).readObject();
+                                long deserialized = System.nanoTime();
+                                for (RunTask task : results) {
+                                    int[] column = task.getResult();
+                                    for (int h = 0; h < task.tileHeight; h++) {
+                                        argb[(task.tileY + h) * frameWidth + task.tileX] = column[h];
+                                    }
+                                }
+                                node.bundler.feedback(bundle.size(), received - start);
+                                node.bundles++;
+                                node.executeNanos += timings[1];
+                                node.serializeNanos += (serialized - start) + (deserialized - received) + timings[0] + timings[2];
+                                node.bytes += request.length + reply.length;
+                            }
+                        }
+                    }));
+                }
+                for (Future<Void> future : futures) {
+                    future.get();
+                }
+            }
+        } finally {
+            dispatchers.shutdownNow();
+        }
+    }
+}
@@ -1,16 +1,26 @@
 package be.kuleuven.mandelbrot;
 
+import org.apache.commons.io.IOUtils;
+
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.geom.AffineTransform;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
-import java.beans.PropertyChangeEvent;
-import java.beans.PropertyChangeListener;
-import java.util.Random;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Stack;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
@@ -21,25 +31,68 @@ public class MandelBrotViewer extends JFrame {
     // frame related stuff
     private int width, height;
     private JPanel imagePanel;
+    // Julia set of the point under the cursor
+    private JuliaPreviewPanel juliaPreview;
     private JToolBar toolBar;
-    private JLabel statusLabel,calculationTimeLabel;
+    private JLabel statusLabel,calculationTimeLabel,kernelLabel;
     private JButton renderButton, zoomOutButton;
     private JProgressBar progressBar;
     private JTextField superSamplesInput;
     private JTextField maxIterationsInput;
+    private JCheckBox autoIterationsBox;
+    private JComboBox<Formula> formulaBox;
+    private JTextField juliaInput;
+    private JComboBox<String> tileOrderBox;
+    private JCheckBox costMapBox;
+    private JCheckBox progressiveBox;
 
     private BufferedImage image;
+    private DisplayBuffer displayBuffer;
     private Stack<Rectangle2D.Double> viewPortStack;
     private Rectangle2D.Double viewPort,origViewPort;
 
     // mouse related stuff
     private boolean mouseDown;
     private Point mouseDownPoint , mouseDragPoint;
+    // last cursor position over the image, the focus of cursor-first tile order
+    private Point lastMousePoint;
+
+    // interactive zoom: a budgeted preview follows every wheel notch or rubber band, the full render waits for idle input
+    private static final int FRAME_BUDGET = 33, REFINE_DELAY = 300;
+    private PreviewRenderer previewRenderer;
+    private ExecutorService previewExecutor;
+    // renders the tiles of a frame, in the order they were submitted, on the cores the Julia preview leaves
+    private ExecutorService localExecutor;
+    private final AtomicLong previewGeneration = new AtomicLong();
+    private Timer refineTimer;
+
+    // Buddhabrot of the current viewport, its intermediate images replace the frame until something else is rendered
+    private static final long BUDDHABROT_SAMPLES_PER_PIXEL = 32;
+    private BuddhabrotRenderer buddhabrotRenderer;
+    private ExecutorService buddhabrotExecutor;
 
     // algorithm related stuff
     int superSamples = 1;
     int maxIterations = 1000;
-    SwingWorker<Void,Void> swingWorker;
+    Formula formula = Formula.MANDELBROT;
+    double juliaRe = -0.8, juliaIm = 0.156;
+    // one foreground render at a time, a newer request supersedes the running one and whatever was still waiting
+    private RenderScheduler renderScheduler = new RenderScheduler();
+    // what the frame on screen cost so far, replaced when a render starts on another frame
+    private volatile CostMap costMap;
+    // the samples drawn so far for the frame on screen, a render of the same frame only adds to them
+    private volatile SampleAccumulator accumulator;
+    // progressive refinement: once a frame is done and the input has been idle for a while, the sample count is doubled
+    private static final int PROGRESSIVE_DELAY = 1000, PROGRESSIVE_LIMIT = 256;
+    private Timer progressiveTimer;
+    private int refinedSamples;
+    // generation of the refinement pass in flight, 0 if there is none
+    private long refinementGeneration;
+    // shown next to the encode rate of an export
+    private long lastCalculationTime;
+    // tiles are rendered nearest the focus first, finished ones wait here until the EDT pushes them to the display
+    private static final int TILE_SIZE = 32;
+    private final ConcurrentLinkedQueue<Rectangle> finishedTiles = new ConcurrentLinkedQueue<>();
 
     public MandelBrotViewer(int width, int height) {
         this.width = width;
@@ -47,6 +100,27 @@ public class MandelBrotViewer extends JFrame {
 
         createFrame();
         clearImage();
+
+        previewRenderer = new PreviewRenderer(width, height, FRAME_BUDGET);
+        previewExecutor = Executors.newSingleThreadExecutor();
+        buddhabrotExecutor = Executors.newSingleThreadExecutor();
+        localExecutor = Executors.newFixedThreadPool(JuliaPreviewPanel.RENDER_THREADS);
+        refineTimer = new Timer(REFINE_DELAY, new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                launchCalculation();
+            }
+        });
+        refineTimer.setRepeats(false);
+        progressiveTimer = new Timer(PROGRESSIVE_DELAY, new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (progressiveBox.isSelected() && refinedSamples < PROGRESSIVE_LIMIT) {
+                    render(Math.min(PROGRESSIVE_LIMIT, 2 * refinedSamples), true);
+                }
+            }
+        });
+        progressiveTimer.setRepeats(false);
     }
 
     private void createFrame() {
@@ -61,9 +135,41 @@ public class MandelBrotViewer extends JFrame {
                            }
                        });
         exit.setText("Exit");
+        JMenuItem export = new JMenuItem(new AbstractAction("Export PNG...") {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                exportImage();
+            }
+        });
+        fileMenu.add(export);
+        JMenuItem exportCost = new JMenuItem(new AbstractAction("Export cost map...") {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                exportCostMap();
+            }
+        });
+        fileMenu.add(exportCost);
+        fileMenu.addSeparator();
         fileMenu.add(exit);
         menuBar.add(fileMenu);
 
+        JMenu renderMenu = new JMenu("Render");
+        JMenuItem buddhabrot = new JMenuItem(new AbstractAction("Buddhabrot") {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                launchBuddhabrot(new int[]{maxIterations});
+            }
+        });
+        renderMenu.add(buddhabrot);
+        JMenuItem nebulabrot = new JMenuItem(new AbstractAction("Nebulabrot") {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                launchBuddhabrot(new int[]{maxIterations, Math.max(1, maxIterations / 10), Math.max(1, maxIterations / 100)});
+            }
+        });
+        renderMenu.add(nebulabrot);
+        menuBar.add(renderMenu);
+
         origViewPort = new Rectangle2D.Double(-2.5,-1,3.5,2);
         viewPort = new Rectangle2D.Double(origViewPort.x,origViewPort.y,origViewPort.width,origViewPort.height);
         viewPortStack = new Stack<>();
@@ -73,30 +179,32 @@ public class MandelBrotViewer extends JFrame {
 
             @Override
             protected void paintComponent(Graphics g) {
-                super.paintComponent(g);
                 Graphics2D g2 = (Graphics2D) g;
-                g2.drawImage(image,0,0,null);
+                displayBuffer.paint(g2, image);
+                CostMap cost = costMap;
+                if (costMapBox.isSelected() && cost != null) {
+                    // kept current by the renderer, a tile repaint only blits the clipped tile
+                    cost.drawOverlay(g2);
+                }
 
-                if(mouseDown) {
+                // the rubber band is an overlay, it is never drawn into the image
+                if (mouseDown) {
                     g2.setColor(Color.RED);
-
-                    int x = Math.min(mouseDownPoint.x,mouseDragPoint.x);
-                    int y = Math.min(mouseDownPoint.y,mouseDragPoint.y);
-                    int w = Math.abs(mouseDownPoint.x-mouseDragPoint.x);
-                    int h = Math.abs(mouseDownPoint.y-mouseDragPoint.y);
-
-                    g2.drawRect(x,y,w,h);
-
+                    Rectangle band = rubberBand();
+                    g2.drawRect(band.x, band.y, band.width - 1, band.height - 1);
                 }
             }
         };
+        displayBuffer = new DisplayBuffer(imagePanel, width, height);
         MouseAdapter mouseAdapter = new MouseAdapter() {
             @Override
             public void mousePressed(MouseEvent e) {
+                postponeRefinement();
                 mouseDown = true;
                 int x = e.getX();
                 int y = e.getY();
                 mouseDownPoint = new Point(x, y);
+                mouseDragPoint = mouseDownPoint;
                 System.out.printf("Mouse down: %b %s\n",mouseDown, mouseDownPoint);
 
             }
@@ -104,6 +212,7 @@ public class MandelBrotViewer extends JFrame {
 
             @Override
             public void mouseMoved(MouseEvent e) {
+                postponeRefinement();
 
                 double nx = 1.0*e.getX()/width;
                 double ny = 1.0*e.getY()/height;
@@ -113,15 +222,20 @@ public class MandelBrotViewer extends JFrame {
                 double vy = viewPort.getMaxY()-ny*viewPort.getHeight();
 
                 statusLabel.setText(String.format("x: %f \t y: %f",vx,vy));
+                lastMousePoint = e.getPoint();
+                juliaPreview.follow(vx, vy);
             }
 
             @Override
             public void mouseDragged(MouseEvent e) {
+                postponeRefinement();
                 if(mouseDown) {
                     int x = e.getX();
                     int y = e.getY();
+                    Rectangle before = rubberBand();
                     mouseDragPoint = new Point(x, y);
-                    imagePanel.repaint();
+                    // only the area covered by the old and the new band needs to be redrawn
+                    imagePanel.repaint(before.union(rubberBand()));
                 }
                 double nx = 1.0*e.getX()/width;
                 double ny = 1.0*e.getY()/height;
@@ -135,6 +249,8 @@ public class MandelBrotViewer extends JFrame {
             @Override
             public void mouseReleased(MouseEvent e) {
                 mouseDown = false;
+                // erase the band as it was last drawn
+                imagePanel.repaint(rubberBand());
                 mouseDragPoint = new Point(e.getX(), e.getY());
                 System.out.printf("Mouse up: %b %s\n",mouseDown, mouseDragPoint);
 
@@ -143,24 +259,28 @@ public class MandelBrotViewer extends JFrame {
                 int w = Math.abs(mouseDownPoint.x-mouseDragPoint.x);
                 int h = Math.abs(mouseDownPoint.y-mouseDragPoint.y);
 
-                double nx = 1.0*x/width;
-                double ny = 1.0*y/height;
-                double nx2 = 1.0*(x+w)/width;
-                double ny2 = 1.0*(y+h)/height;
-
-
-                double vx = viewPort.getMinX()+nx*viewPort.getWidth();
-                double vy = viewPort.getMaxY()-ny*viewPort.getHeight();
+                if (w < 2 || h < 2)
+                    return;
 
-                double vx2 = viewPort.getMinX()+nx2*viewPort.getWidth();
-                double vy2 = viewPort.getMaxY()-ny2*viewPort.getHeight();
+                double nx = 1.0 * x / width;
+                double ny = 1.0 * y / height;
+                double nx2 = 1.0 * (x + w) / width;
+                double ny2 = 1.0 * (y + h) / height;
 
-                if(swingWorker != null)
-                    return;
+                interactiveZoom(PreciseViewPort.select(viewPort, nx, ny, nx2, ny2));
+            }
 
-                viewPortStack.push(viewPort);
-                viewPort = new Rectangle2D.Double(Math.min(vx,vx2),Math.min(vy,vy2),Math.abs(vx2-vx),Math.abs(vy2-vy));
-                launchCalculation();
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                postponeRefinement();
+                // zoom around the cursor, 25% per notch, the point under the cursor stays put
+                double factor = Math.pow(1.25, e.getPreciseWheelRotation());
+                double nx = 1.0 * e.getX() / width;
+                double ny = 1.0 * e.getY() / height;
+                double nx0 = nx - nx * factor;
+                double ny0 = ny - ny * factor;
+
+                interactiveZoom(PreciseViewPort.select(viewPort, nx0, ny0, nx0 + factor, ny0 + factor));
             }
 
         };
@@ -176,10 +296,18 @@ public class MandelBrotViewer extends JFrame {
 
 
         statusLabel = new JLabel(String.format("x: \ty:"));
+        kernelLabel = new JLabel("Kernel: -");
+        JPanel statusBar = new JPanel(new BorderLayout());
+        statusBar.add(statusLabel, BorderLayout.CENTER);
+        statusBar.add(kernelLabel, BorderLayout.LINE_END);
         this.setJMenuBar(menuBar);
         this.getContentPane().add(toolBar,BorderLayout.PAGE_START);
         this.getContentPane().add(imagePanel, BorderLayout.CENTER);
-        this.getContentPane().add(statusLabel,BorderLayout.PAGE_END);
+        juliaPreview = new JuliaPreviewPanel(width / 4, height / 4);
+        JPanel sidePanel = new JPanel(new BorderLayout());
+        sidePanel.add(juliaPreview, BorderLayout.PAGE_START);
+        this.getContentPane().add(sidePanel,BorderLayout.LINE_END);
+        this.getContentPane().add(statusBar,BorderLayout.PAGE_END);
     }
 
     private void createToolBar() {
@@ -221,6 +349,11 @@ public class MandelBrotViewer extends JFrame {
         toolBar.add(maxIterationsInput);
         toolBar.addSeparator();
 
+        autoIterationsBox = new JCheckBox("Auto");
+        autoIterationsBox.setToolTipText("Derive the iteration limit from the zoom depth and a probe pass");
+        toolBar.add(autoIterationsBox);
+        toolBar.addSeparator();
+
         toolBar.add(new JLabel(("\tSuper samples:\t")));
         toolBar.addSeparator();
 
@@ -229,6 +362,44 @@ public class MandelBrotViewer extends JFrame {
         toolBar.add(superSamplesInput);
         toolBar.addSeparator();
 
+        formulaBox = new JComboBox<>(Formula.values());
+        toolBar.add(formulaBox);
+        toolBar.addSeparator();
+
+        toolBar.add(new JLabel("\tJulia c:\t"));
+        juliaInput = new JTextField("-0.8,0.156");
+        juliaInput.setHorizontalAlignment(JTextField.CENTER);
+        toolBar.add(juliaInput);
+        toolBar.addSeparator();
+
+        tileOrderBox = new JComboBox<>(new String[]{"Centre first", "Cursor first"});
+        tileOrderBox.setToolTipText("Which part of the frame is rendered first");
+        toolBar.add(tileOrderBox);
+        costMapBox = new JCheckBox("Cost map");
+        costMapBox.setToolTipText("Overlay the iterations each pixel took, blue is cheap and red expensive");
+        costMapBox.addActionListener(new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                imagePanel.repaint();
+            }
+        });
+        toolBar.add(costMapBox);
+        progressiveBox = new JCheckBox("Refine");
+        progressiveBox.setToolTipText(String.format("Keep adding samples while the frame is left alone, up to %d per pixel", PROGRESSIVE_LIMIT));
+        progressiveBox.addActionListener(new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                // a render in progress starts refinement once it is done
+                if (progressiveBox.isSelected() && accumulator != null && renderButton.isEnabled()) {
+                    progressiveTimer.restart();
+                } else {
+                    progressiveTimer.stop();
+                }
+            }
+        });
+        toolBar.add(progressiveBox);
+        toolBar.addSeparator();
+
         progressBar = new JProgressBar(JProgressBar.HORIZONTAL,0,100);
         progressBar.setEnabled(false);
         toolBar.add(progressBar);
@@ -240,9 +411,152 @@ public class MandelBrotViewer extends JFrame {
 
     @Override
     public void dispose() {
+        refineTimer.stop();
+        progressiveTimer.stop();
+        previewExecutor.shutdownNow();
+        localExecutor.shutdownNow();
+        previewRenderer.shutdown();
+        juliaPreview.shutdown();
+        renderScheduler.shutdown();
+        cancelBuddhabrot();
+        buddhabrotExecutor.shutdownNow();
         super.dispose();
     }
 
+    // bounds of the rubber band including its one pixel outline
+    private Rectangle rubberBand() {
+        int x = Math.min(mouseDownPoint.x, mouseDragPoint.x);
+        int y = Math.min(mouseDownPoint.y, mouseDragPoint.y);
+        int w = Math.abs(mouseDownPoint.x - mouseDragPoint.x);
+        int h = Math.abs(mouseDownPoint.y - mouseDragPoint.y);
+        return new Rectangle(x, y, w + 1, h + 1);
+    }
+
+    private void interactiveZoom(Rectangle2D.Double next) {
+        cancelBuddhabrot();
+        // the running render belongs to the old viewport
+        renderScheduler.supersede();
+        progressiveTimer.stop();
+        showIdle();
+        // one history entry per gesture, not per wheel notch
+        if (!refineTimer.isRunning()) {
+            viewPortStack.push(viewPort);
+        }
+        Rectangle2D.Double previous = viewPort;
+        viewPort = next;
+
+        showScaledFrame(previous, next);
+        requestPreview();
+        refineTimer.restart();
+    }
+
+    // show the last frame stretched onto the new viewport until something better is available
+    private void showScaledFrame(Rectangle2D.Double previous, Rectangle2D.Double next) {
+        double sx = previous.getWidth() / next.getWidth();
+        double sy = previous.getHeight() / next.getHeight();
+        double tx = ((previous.getMinX() - next.getMinX()) + (PreciseViewPort.minXLo(previous) - PreciseViewPort.minXLo(next))) / next.getWidth() * width;
+        double ty = ((next.getMaxY() - previous.getMaxY()) + (PreciseViewPort.maxYLo(next) - PreciseViewPort.maxYLo(previous))) / next.getHeight() * height;
+
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2 = scaled.createGraphics();
+        g2.setColor(Color.WHITE);
+        g2.fillRect(0, 0, width, height);
+        g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g2.drawImage(image, new AffineTransform(sx, 0, 0, sy, tx, ty), null);
+        g2.dispose();
+        image = scaled;
+        displayBuffer.damageAll();
+    }
+
+    private void requestPreview() {
+        final long generation = previewGeneration.incrementAndGet();
+        final Rectangle2D.Double frameViewPort = viewPort;
+        final int iterations = maxIterations, samples = superSamples;
+        final Formula frameFormula = formula;
+        final double cRe = juliaRe, cIm = juliaIm;
+        previewExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                // newer requests queued behind this one make it pointless
+                if (generation != previewGeneration.get()) {
+                    return;
+                }
+                try {
+                    final PreviewRenderer.Frame frame = previewRenderer.render(frameViewPort, frameFormula, cRe, cIm, iterations, samples);
+                    SwingUtilities.invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (generation != previewGeneration.get()) {
+                                return;
+                            }
+                            Graphics2D g2 = image.createGraphics();
+                            g2.drawImage(frame.image, 0, 0, frame.image.getWidth() * frame.scale, frame.image.getHeight() * frame.scale, null);
+                            g2.dispose();
+                            displayBuffer.damageAll();
+                            calculationTimeLabel.setText(String.format("\tPreview 1/%d res, %d samples:\t%d ms", frame.scale, frame.samples, frame.nanos / 1000000));
+                        }
+                    });
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    private void launchBuddhabrot(int[] limits) {
+        cancelBuddhabrot();
+        renderScheduler.supersede();
+        progressiveTimer.stop();
+        showIdle();
+        previewGeneration.incrementAndGet();
+        refineTimer.stop();
+
+        final BuddhabrotRenderer renderer = new BuddhabrotRenderer(width, height, viewPort, limits);
+        renderer.useLocalThreads(JuliaPreviewPanel.RENDER_THREADS);
+        buddhabrotRenderer = renderer;
+        final long samples = BUDDHABROT_SAMPLES_PER_PIXEL * width * height;
+        final long startTime = System.currentTimeMillis();
+        kernelLabel.setText(limits.length == 1 ? String.format("Kernel: Buddhabrot %d", limits[0])
+                : String.format("Kernel: Nebulabrot %d/%d/%d", limits[0], limits[1], limits[2]));
+        buddhabrotExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    renderer.render(samples, 1, 1000, new BuddhabrotRenderer.Listener() {
+                        @Override
+                        public void published(final BufferedImage frame, final long counted, final boolean done) {
+                            SwingUtilities.invokeLater(new Runnable() {
+                                @Override
+                                public void run() {
+                                    if (buddhabrotRenderer != renderer) {
+                                        return;
+                                    }
+                                    Graphics2D g2 = image.createGraphics();
+                                    g2.drawImage(frame, 0, 0, null);
+                                    g2.dispose();
+                                    displayBuffer.damageAll();
+                                    calculationTimeLabel.setText(String.format("\t%s %d%% of %d Msamples:\t%d ms", done ? "Buddhabrot" : "Buddhabrot preview",
+                                            100 * counted / samples, samples / 1000000, System.currentTimeMillis() - startTime));
+                                }
+                            });
+                        }
+                    });
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    renderer.shutdown();
+                }
+            }
+        });
+    }
+
+    private void cancelBuddhabrot() {
+        if (buddhabrotRenderer != null) {
+            buddhabrotRenderer.cancel();
+            buddhabrotRenderer = null;
+        }
+    }
+
     private void launchCalculation() {
 
         try {
@@ -260,126 +574,341 @@ public class MandelBrotViewer extends JFrame {
             superSamples = 32;
         }
 
-        try {
-            maxIterations = Integer.parseUnsignedInt(maxIterationsInput.getText().trim());
-        } catch (NumberFormatException nfe) {
-            JOptionPane.showMessageDialog(this, "MaxIterations needs to be integer and 100 <=  and <= 5000");
-            return;
-        }
-        if(maxIterations < 100) {
-            maxIterationsInput.setText("100");
-            maxIterations = 100;
+        formula = (Formula) formulaBox.getSelectedItem();
+        if (formula == Formula.JULIA) {
+            try {
+                String[] parts = juliaInput.getText().split(",");
+                juliaRe = Double.parseDouble(parts[0].trim());
+                juliaIm = Double.parseDouble(parts[1].trim());
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                JOptionPane.showMessageDialog(this, "Julia c needs to be written as re,im");
+                return;
+            }
         }
-        if (maxIterations > 5000) {
-            maxIterationsInput.setText("5000");
-            maxIterations = 5000;
+
+        final boolean autoIterations = autoIterationsBox.isSelected();
+        if (!autoIterations) {
+            try {
+                maxIterations = Integer.parseUnsignedInt(maxIterationsInput.getText().trim());
+            } catch (NumberFormatException nfe) {
+                JOptionPane.showMessageDialog(this, "MaxIterations needs to be integer and 100 <=  and <= 5000");
+                return;
+            }
+            if(maxIterations < 100) {
+                maxIterationsInput.setText("100");
+                maxIterations = 100;
+            }
+            if (maxIterations > 5000) {
+                maxIterationsInput.setText("5000");
+                maxIterations = 5000;
+            }
         }
 
+        render(superSamples, false);
+    }
+
+    // renders the current settings at `samples` per pixel, adding to what the frame already holds; a refinement pass
+    // leaves the controls alone so the user can go on
+    private void render(final int samples, final boolean refinement) {
+        final boolean autoIterations = autoIterationsBox.isSelected();
+        final double minX = viewPort.getMinX(), minXLo = PreciseViewPort.minXLo(viewPort);
+        final double maxY = viewPort.getMaxY(), maxYLo = PreciseViewPort.maxYLo(viewPort);
+        final FractalKernel kernel = formula.kernel(viewPort, width, height, juliaRe, juliaIm);
+        kernelLabel.setText(String.format("Kernel: %s%s", kernel.label(),
+                formula == Formula.MANDELBROT && PrecisionTier.exhausted(minX, maxY, viewPort.getWidth(), viewPort.getHeight(), width, height) ? " (precision limit reached)" : ""));
+
+        // a full render supersedes any preview or Buddhabrot still in flight
+        previewGeneration.incrementAndGet();
+        cancelBuddhabrot();
+        refineTimer.stop();
+        progressiveTimer.stop();
 
-        // launch swingworker
         final long startTime = System.currentTimeMillis();
-        if(swingWorker != null) {
-            swingWorker.cancel(true);
+        final double focusX, focusY;
+        if (tileOrderBox.getSelectedIndex() == 1 && lastMousePoint != null) {
+            focusX = lastMousePoint.x;
+            focusY = lastMousePoint.y;
+        } else {
+            focusX = width / 2.0;
+            focusY = height / 2.0;
         }
-        swingWorker = new SwingWorker<Void, Void>() {
+        // the render works on a copy of the settings, later edits belong to the next request
+        final Rectangle2D.Double frameViewPort = viewPort;
+        final int iterations = maxIterations;
+        progressBar.setValue(0);
+        progressBar.setEnabled(true);
+        if (!refinement) {
+            renderButton.setEnabled(false);
+            zoomOutButton.setEnabled(false);
+        }
+        long submitted = renderScheduler.submit(new RenderScheduler.Render() {
             @Override
-            protected Void doInBackground() throws Exception {
-                Random rnd = new Random();
-
-                for (int w = 0; w < width; w++) {
-                    setProgress((int)(100.0 * w / width));
-
-                    for(int h = 0; h<height; h++) {
-
-                        float r = 0, g = 0, b = 0;
-                        for (int sample = 0; sample < superSamples; sample++) {
-                            if(isCancelled()) {
-                                return null;
+            public void run(final long generation) throws Exception {
+                int frameIterations = iterations;
+                if (autoIterations) {
+                    frameIterations = IterationBudget.estimate(kernel, frameViewPort);
+                    final int chosen = frameIterations;
+                    SwingUtilities.invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (renderScheduler.isCurrent(generation)) {
+                                maxIterations = chosen;
+                                maxIterationsInput.setText(Integer.toString(chosen));
                             }
-
-                            // escape time algorithm
-                            double x0, y0;
-                            if (superSamples == 1) {
-                                x0 = viewPort.getMinX() + (w + .5) / width * viewPort.getWidth();
-                                y0 = viewPort.getMaxY() - (h + 0.5) / height * viewPort.getHeight();
+                        }
+                    });
+                }
+                // the same frame keeps its samples and costs, anything else starts over
+                SampleAccumulator held = accumulator;
+                CostMap heldCost = costMap;
+                if (held == null || heldCost == null || !held.matches(width, height, frameViewPort, kernel, frameIterations)) {
+                    held = new SampleAccumulator(width, height, frameViewPort, kernel, frameIterations);
+                    heldCost = new CostMap(width, height, frameViewPort, kernel, frameIterations, samples);
+                }
+                final SampleAccumulator frameSamples = held;
+                final CostMap frameCost = heldCost;
+                renderScheduler.publish(generation, new Runnable() {
+                    @Override
+                    public void run() {
+                        accumulator = frameSamples;
+                        costMap = frameCost;
+                    }
+                });
+                final ConjugateSymmetry symmetry = ConjugateSymmetry.of(kernel, frameViewPort.getMaxY(), frameViewPort.getHeight(), height);
+
+                final int tileIterations = frameIterations;
+                final List<Rectangle> tiles = TileOrder.tiles(width, height, TILE_SIZE, symmetry, focusX, focusY);
+                final AtomicInteger drawn = new AtomicInteger();
+                // the pool takes the tiles in focus order, each worker renders one and writes it straight to the raster
+                List<Future<?>> futures = new ArrayList<>();
+                for (final Rectangle tile : tiles) {
+                    futures.add(localExecutor.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            // superseded work stops at the next tile
+                            if (!renderScheduler.isCurrent(generation)) {
+                                return;
+                            }
+                            // only the samples the tile does not hold yet, a tile that has them all is just redrawn
+                            final int first = Math.min(samples, frameSamples.samples(tile));
+                            final RunTask task;
+                            if (first < samples) {
+                                task = new RunTask(tileIterations, samples, minX, maxY, frameViewPort.getWidth(), frameViewPort.getHeight(),
+                                        tile.x, tile.y, tile.width, tile.height, width, height);
+                                task.getMinXLo = minXLo;
+                                task.getMaxYLo = maxYLo;
+                                task.kernel = kernel;
+                                task.firstSample = first;
+                                task.recordCost = true;
+                                task.keepSums = true;
+                                task.run();
                             } else {
-                                x0 = viewPort.getMinX() + (w + rnd.nextDouble()) / width * viewPort.getWidth();
-                                y0 = viewPort.getMaxY() - (h + rnd.nextDouble()) / height * viewPort.getHeight();
+                                task = null;
                             }
-                            double x = 0;
-                            double y = 0;
 
-                            long iteration = 0;
-                            long max_iteration = maxIterations;
-
-                            while (x * x + y * y < 4 && iteration < max_iteration) {
-                                double xtemp = x * x - y * y + x0;
-                                y = 2 * x * y + y0;
-                                x = xtemp;
-                                iteration++;
+                            // the frame's own samples and costs take the tile even if it turns out stale, it is still right for them
+                            final Rectangle mirror = TileOrder.mirror(tile, symmetry);
+                            if (task != null) {
+                                frameSamples.add(tile, first, samples, task.sampleSums);
+                                frameCost.record(tile, task.costIterations, samples - first, task.nanos);
                             }
-
-                            // determine the color
-                            Color color = Color.BLACK;
-                            if (iteration < max_iteration) {
-                                double quotient = (double) iteration / (double) max_iteration;
-                                float c = (float) Math.pow(quotient, 1.0 / 3);
-                                if (quotient > 0.5) {
-                                    // Close to the mandelbrot set the color changes from green to white
-                                    r += c;
-                                    g += 1.f;
-                                    b += c;
-                                } else {
-                                    // Far away it changes from black to green
-                                    g += c;
+                            if (mirror != null) {
+                                frameSamples.mirror(tile, mirror, symmetry);
+                                if (task != null) {
+                                    frameCost.recordMirror(tile, mirror, symmetry);
                                 }
-
                             }
+                            final int[] argb = frameSamples.argb(tile);
+
+                            // stale tiles never reach the raster, the check and the write are one step
+                            boolean written = renderScheduler.publish(generation, new Runnable() {
+                                @Override
+                                public void run() {
+                                    image.setRGB(tile.x, tile.y, tile.width, tile.height, argb, 0, tile.width);
+                                    finishedTiles.add(tile);
+                                    if (mirror != null) {
+                                        // the conjugate rows get the same pixels
+                                        for (int h = mirror.y; h < mirror.y + mirror.height; h++) {
+                                            image.setRGB(tile.x, h, tile.width, 1, argb, (symmetry.source(h) - tile.y) * tile.width, tile.width);
+                                        }
+                                        finishedTiles.add(mirror);
+                                    }
+                                }
+                            });
+                            if (!written) {
+                                return;
+                            }
+                            final int progress = (int) (100.0 * drawn.incrementAndGet() / tiles.size());
+                            SwingUtilities.invokeLater(new Runnable() {
+                                @Override
+                                public void run() {
+                                    if (renderScheduler.isCurrent(generation)) {
+                                        progressBar.setValue(progress);
+                                        damageFinishedTiles();
+                                    }
+                                }
+                            });
                         }
-
-                        image.setRGB(w,h,new Color(r/superSamples,g/superSamples,b/superSamples).getRGB());
+                    }));
+                }
+                try {
+                    for (Future<?> future : futures) {
+                        future.get();
+                        if (!renderScheduler.isCurrent(generation)) {
+                            return;
+                        }
+                    }
+                } finally {
+                    // superseded or failed, tiles already running finish but the queued ones never start
+                    for (Future<?> future : futures) {
+                        future.cancel(false);
                     }
                 }
-
-                return null;
+                frameCost.complete = true;
+                // a lower count than the frame already holds draws nothing, refinement carries on from what is there
+                final int heldSamples = frameSamples.samples(new Rectangle(0, 0, width, height));
+
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!renderScheduler.isCurrent(generation)) {
+                            return;
+                        }
+                        damageFinishedTiles();
+                        displayBuffer.damageAll();
+                        showIdle();
+
+                        lastCalculationTime = System.currentTimeMillis() - startTime;
+                        calculationTimeLabel.setText(String.format("\tLast calculation time:\t%d ms, %d samples", lastCalculationTime, heldSamples));
+                        refinedSamples = heldSamples;
+                        if (progressiveBox.isSelected()) {
+                            progressiveTimer.restart();
+                        }
+                    }
+                });
             }
 
             @Override
-            protected void done() {
-                setProgress(100);
-                imagePanel.repaint();
-                renderButton.setEnabled(true);
-                if(!viewPortStack.empty()) {
-                    zoomOutButton.setEnabled(true);
-                }
-                progressBar.setEnabled(false);
+            public void failed(final long generation, final Exception e) {
+                // whatever was drawn stays, the controls come back like after a finished render
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!renderScheduler.isCurrent(generation)) {
+                            return;
+                        }
+                        damageFinishedTiles();
+                        showIdle();
+                        calculationTimeLabel.setText(String.format("\tRender failed:\t%s", e.getMessage()));
+                    }
+                });
+            }
+        });
+        refinementGeneration = refinement ? submitted : 0;
+    }
 
-                long endTime = System.currentTimeMillis();
-                calculationTimeLabel.setText(String.format("\tLast calculation time:\t%d ms",endTime-startTime));
+    // input holds refinement back until the user has left the frame alone for PROGRESSIVE_DELAY; a pass already under
+    // way stops at its next tile and starts over later from the samples it got to
+    private void postponeRefinement() {
+        if (refinementGeneration != 0 && renderScheduler.isCurrent(refinementGeneration)) {
+            renderScheduler.supersede();
+            showIdle();
+            progressiveTimer.restart();
+        } else if (progressiveTimer.isRunning()) {
+            progressiveTimer.restart();
+        }
+        refinementGeneration = 0;
+    }
 
+    private void exportImage() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new File("mandelbrot.png"));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        final File file = chooser.getSelectedFile();
+        // the frame as it is now, rendering may go on while it is encoded
+        final int[] argb = image.getRGB(0, 0, width, height, null, 0, width);
+        new SwingWorker<ParallelPngWriter, Void>() {
+            @Override
+            protected ParallelPngWriter doInBackground() throws Exception {
+                ParallelPngWriter writer = new ParallelPngWriter(file, width, height, Runtime.getRuntime().availableProcessors());
+                try {
+                    writer.writeBand(argb, height);
+                    writer.close();
+                } finally {
+                    IOUtils.closeQuietly(writer);
+                }
+                return writer;
             }
 
-        };
-        progressBar.setEnabled(true);
-        renderButton.setEnabled(false);
-        zoomOutButton.setEnabled(false);
-        swingWorker.addPropertyChangeListener(new PropertyChangeListener() {
             @Override
-            public void propertyChange(PropertyChangeEvent evt) {
-                if (evt.getPropertyName().equals("progress")) {
-                    progressBar.setValue((Integer)evt.getNewValue());
+            protected void done() {
+                try {
+                    ParallelPngWriter writer = get();
+                    calculationTimeLabel.setText(String.format("\tLast calculation time:\t%d ms, %s encoded at %.1f MB/s", lastCalculationTime,
+                            file.getName(), writer.megabytesPerSecond()));
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    JOptionPane.showMessageDialog(MandelBrotViewer.this, "Export failed: " + e.getCause());
+                }
+            }
+        }.execute();
+    }
 
+    private void exportCostMap() {
+        final CostMap cost = costMap;
+        if (cost == null) {
+            JOptionPane.showMessageDialog(this, "Nothing has been rendered yet");
+            return;
+        }
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new File("cost.csv"));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        final File file = chooser.getSelectedFile();
+        // .csv as text, anything else in the raw binary layout of CostMap.writeRaw
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                if (file.getName().toLowerCase().endsWith(".csv")) {
+                    cost.writeCsv(file);
+                } else {
+                    cost.writeRaw(file);
                 }
+                return null;
+            }
 
-                if(!evt.getOldValue().equals(evt.getNewValue())) {
-                    imagePanel.repaint();
+            @Override
+            protected void done() {
+                try {
+                    get();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    JOptionPane.showMessageDialog(MandelBrotViewer.this, "Export failed: " + e.getCause());
                 }
             }
-        });
-        swingWorker.execute();
-        swingWorker = null;
+        }.execute();
     }
 
+    // controls back to their idle state, for a finished render or one that something else replaced
+    private void showIdle() {
+        progressBar.setValue(100);
+        renderButton.setEnabled(true);
+        if(!viewPortStack.empty()) {
+            zoomOutButton.setEnabled(true);
+        }
+        progressBar.setEnabled(false);
+    }
+
+
+    private void damageFinishedTiles() {
+        Rectangle tile;
+        while ((tile = finishedTiles.poll()) != null) {
+            displayBuffer.damage(tile);
+        }
+    }
 
     private void clearImage() {
 
@@ -1,21 +1,28 @@
 package be.kuleuven.mandelbrot;
 
-import org.jppf.client.JPPFClient;
-import org.jppf.client.JPPFJob;
-import org.jppf.node.protocol.Task;
+import org.apache.commons.io.IOUtils;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.geom.AffineTransform;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
-import java.beans.PropertyChangeEvent;
-import java.beans.PropertyChangeListener;
+import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 import java.util.Stack;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class MandelBrotViewerJPPF extends JFrame {
 
@@ -23,27 +30,74 @@ public class MandelBrotViewerJPPF extends JFrame {
     // frame related stuff
     private int width, height;
     private JPanel imagePanel;
+    // Julia set of the point under the cursor
+    private JuliaPreviewPanel juliaPreview;
     private JToolBar toolBar;
-    private JLabel statusLabel, calculationTimeLabel;
+    private JLabel statusLabel, calculationTimeLabel, kernelLabel, gridLabel;
     private JButton renderButton, zoomOutButton;
     private JProgressBar progressBar;
     private JTextField superSamplesInput;
     private JTextField maxIterationsInput;
+    private JCheckBox autoIterationsBox;
+    private JComboBox<Formula> formulaBox;
+    private JTextField juliaInput;
+    private JComboBox<String> tileOrderBox;
+    private JCheckBox costMapBox;
+    private JCheckBox progressiveBox;
 
     private BufferedImage image;
+    private DisplayBuffer displayBuffer;
     private Stack<Rectangle2D.Double> viewPortStack;
     private Rectangle2D.Double viewPort, origViewPort;
 
     // mouse related stuff
     private boolean mouseDown;
     private Point mouseDownPoint, mouseDragPoint;
+    // last cursor position over the image, the focus of cursor-first tile order
+    private Point lastMousePoint;
+
+    // interactive zoom: a budgeted preview follows every wheel notch or rubber band, the full render waits for idle input
+    private static final int FRAME_BUDGET = 33, REFINE_DELAY = 300;
+    private PreviewRenderer previewRenderer;
+    private ExecutorService previewExecutor;
+    // renders frames while the grid is not there, and local copies of grid tasks that are taking too long; sized to the
+    // cores the Julia preview leaves
+    private ExecutorService localExecutor;
+    private final AtomicLong previewGeneration = new AtomicLong();
+    private Timer refineTimer;
+
+    // Buddhabrot of the current viewport, its intermediate images replace the frame until something else is rendered
+    private static final long BUDDHABROT_SAMPLES_PER_PIXEL = 32;
+    private BuddhabrotRenderer buddhabrotRenderer;
+    private ExecutorService buddhabrotExecutor;
 
     // algorithm related stuff
     int superSamples = 1;
     int maxIterations = 1000;
-    SwingWorker<Void, Void> swingWorker;
-
-    private JPPFClient jppfClient;
+    Formula formula = Formula.MANDELBROT;
+    double juliaRe = -0.8, juliaIm = 0.156;
+    // one foreground render at a time, a newer request supersedes the running one and whatever was still waiting
+    private RenderScheduler renderScheduler = new RenderScheduler();
+    // what the frame on screen cost so far, replaced when a render starts on another frame
+    private volatile CostMap costMap;
+    // the samples drawn so far for the frame on screen, a render of the same frame only adds to them
+    private volatile SampleAccumulator accumulator;
+    // progressive refinement: once a frame is done and the input has been idle for a while, the sample count is doubled
+    private static final int PROGRESSIVE_DELAY = 1000, PROGRESSIVE_LIMIT = 256;
+    private Timer progressiveTimer;
+    private int refinedSamples;
+    // generation of the refinement pass in flight, 0 if there is none
+    private long refinementGeneration;
+    // shown next to the encode rate of an export
+    private long lastCalculationTime;
+    // tiles are submitted nearest the focus first, returned ones wait here until the EDT pushes them to the display
+    private static final int TILE_SIZE = 32;
+    private final ConcurrentLinkedQueue<Rectangle> finishedTiles = new ConcurrentLinkedQueue<>();
+
+    // the grid is connected in the background, frames are rendered locally until a driver is there and whenever it drops
+    private static final int GRID_POLL = 500, GRID_LOST_DELAY = 1000;
+    private GridConnection grid;
+    private Timer gridTimer;
 
     public MandelBrotViewerJPPF(int width, int height) {
         this.width = width;
@@ -52,7 +106,36 @@ public class MandelBrotViewerJPPF extends JFrame {
         createFrame();
         clearImage();
 
-        jppfClient = new JPPFClient();
+        previewRenderer = new PreviewRenderer(width, height, FRAME_BUDGET);
+        previewExecutor = Executors.newSingleThreadExecutor();
+        buddhabrotExecutor = Executors.newSingleThreadExecutor();
+        localExecutor = Executors.newFixedThreadPool(JuliaPreviewPanel.RENDER_THREADS);
+        refineTimer = new Timer(REFINE_DELAY, new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                launchCalculation();
+            }
+        });
+        refineTimer.setRepeats(false);
+        progressiveTimer = new Timer(PROGRESSIVE_DELAY, new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (progressiveBox.isSelected() && refinedSamples < PROGRESSIVE_LIMIT) {
+                    render(Math.min(PROGRESSIVE_LIMIT, 2 * refinedSamples), true);
+                }
+            }
+        });
+        progressiveTimer.setRepeats(false);
+
+        grid = new GridConnection();
+        grid.start();
+        gridTimer = new Timer(GRID_POLL, new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                gridLabel.setText(grid.status());
+            }
+        });
+        gridTimer.start();
     }
 
     private void createFrame() {
@@ -67,9 +150,41 @@ public class MandelBrotViewerJPPF extends JFrame {
             }
         });
         exit.setText("Exit");
+        JMenuItem export = new JMenuItem(new AbstractAction("Export PNG...") {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                exportImage();
+            }
+        });
+        fileMenu.add(export);
+        JMenuItem exportCost = new JMenuItem(new AbstractAction("Export cost map...") {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                exportCostMap();
+            }
+        });
+        fileMenu.add(exportCost);
+        fileMenu.addSeparator();
         fileMenu.add(exit);
         menuBar.add(fileMenu);
 
+        JMenu renderMenu = new JMenu("Render");
+        JMenuItem buddhabrot = new JMenuItem(new AbstractAction("Buddhabrot") {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                launchBuddhabrot(new int[]{maxIterations});
+            }
+        });
+        renderMenu.add(buddhabrot);
+        JMenuItem nebulabrot = new JMenuItem(new AbstractAction("Nebulabrot") {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                launchBuddhabrot(new int[]{maxIterations, Math.max(1, maxIterations / 10), Math.max(1, maxIterations / 100)});
+            }
+        });
+        renderMenu.add(nebulabrot);
+        menuBar.add(renderMenu);
+
         origViewPort = new Rectangle2D.Double(-2.5, -1, 3.5, 2);
         viewPort = new Rectangle2D.Double(origViewPort.x, origViewPort.y, origViewPort.width, origViewPort.height);
         viewPortStack = new Stack<>();
@@ -79,30 +194,32 @@ public class MandelBrotViewerJPPF extends JFrame {
 
             @Override
             protected void paintComponent(Graphics g) {
-                super.paintComponent(g);
                 Graphics2D g2 = (Graphics2D) g;
-                g2.drawImage(image, 0, 0, null);
+                displayBuffer.paint(g2, image);
+                CostMap cost = costMap;
+                if (costMapBox.isSelected() && cost != null) {
+                    // kept current by the renderer, a tile repaint only blits the clipped tile
+                    cost.drawOverlay(g2);
+                }
 
+                // the rubber band is an overlay, it is never drawn into the image
                 if (mouseDown) {
                     g2.setColor(Color.RED);
-
-                    int x = Math.min(mouseDownPoint.x, mouseDragPoint.x);
-                    int y = Math.min(mouseDownPoint.y, mouseDragPoint.y);
-                    int w = Math.abs(mouseDownPoint.x - mouseDragPoint.x);
-                    int h = Math.abs(mouseDownPoint.y - mouseDragPoint.y);
-
-                    g2.drawRect(x, y, w, h);
-
+                    Rectangle band = rubberBand();
+                    g2.drawRect(band.x, band.y, band.width - 1, band.height - 1);
                 }
             }
         };
+        displayBuffer = new DisplayBuffer(imagePanel, width, height);
         MouseAdapter mouseAdapter = new MouseAdapter() {
             @Override
             public void mousePressed(MouseEvent e) {
+                postponeRefinement();
                 mouseDown = true;
                 int x = e.getX();
                 int y = e.getY();
                 mouseDownPoint = new Point(x, y);
+                mouseDragPoint = mouseDownPoint;
                 System.out.printf("Mouse down: %b %s\n", mouseDown, mouseDownPoint);
 
             }
@@ -110,6 +227,7 @@ public class MandelBrotViewerJPPF extends JFrame {
 
             @Override
             public void mouseMoved(MouseEvent e) {
+                postponeRefinement();
 
                 double nx = 1.0 * e.getX() / width;
                 double ny = 1.0 * e.getY() / height;
@@ -119,15 +237,20 @@ public class MandelBrotViewerJPPF extends JFrame {
                 double vy = viewPort.getMaxY() - ny * viewPort.getHeight();
 
                 statusLabel.setText(String.format("x: %f \t y: %f", vx, vy));
+                lastMousePoint = e.getPoint();
+                juliaPreview.follow(vx, vy);
             }
 
             @Override
             public void mouseDragged(MouseEvent e) {
+                postponeRefinement();
                 if (mouseDown) {
                     int x = e.getX();
                     int y = e.getY();
+                    Rectangle before = rubberBand();
                     mouseDragPoint = new Point(x, y);
-                    imagePanel.repaint();
+                    // only the area covered by the old and the new band needs to be redrawn
+                    imagePanel.repaint(before.union(rubberBand()));
                 }
                 double nx = 1.0 * e.getX() / width;
                 double ny = 1.0 * e.getY() / height;
@@ -141,6 +264,8 @@ public class MandelBrotViewerJPPF extends JFrame {
             @Override
             public void mouseReleased(MouseEvent e) {
                 mouseDown = false;
+                // erase the band as it was last drawn
+                imagePanel.repaint(rubberBand());
                 mouseDragPoint = new Point(e.getX(), e.getY());
                 System.out.printf("Mouse up: %b %s\n", mouseDown, mouseDragPoint);
 
@@ -149,24 +274,28 @@ public class MandelBrotViewerJPPF extends JFrame {
                 int w = Math.abs(mouseDownPoint.x - mouseDragPoint.x);
                 int h = Math.abs(mouseDownPoint.y - mouseDragPoint.y);
 
+                if (w < 2 || h < 2)
+                    return;
+
                 double nx = 1.0 * x / width;
                 double ny = 1.0 * y / height;
                 double nx2 = 1.0 * (x + w) / width;
                 double ny2 = 1.0 * (y + h) / height;
 
+                interactiveZoom(PreciseViewPort.select(viewPort, nx, ny, nx2, ny2));
+            }
 
-                double vx = viewPort.getMinX() + nx * viewPort.getWidth();
-                double vy = viewPort.getMaxY() - ny * viewPort.getHeight();
-
-                double vx2 = viewPort.getMinX() + nx2 * viewPort.getWidth();
-                double vy2 = viewPort.getMaxY() - ny2 * viewPort.getHeight();
-
-                if (swingWorker != null)
-                    return;
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                postponeRefinement();
+                // zoom around the cursor, 25% per notch, the point under the cursor stays put
+                double factor = Math.pow(1.25, e.getPreciseWheelRotation());
+                double nx = 1.0 * e.getX() / width;
+                double ny = 1.0 * e.getY() / height;
+                double nx0 = nx - nx * factor;
+                double ny0 = ny - ny * factor;
 
-                viewPortStack.push(viewPort);
-                viewPort = new Rectangle2D.Double(Math.min(vx, vx2), Math.min(vy, vy2), Math.abs(vx2 - vx), Math.abs(vy2 - vy));
-                launchCalculation();
+                interactiveZoom(PreciseViewPort.select(viewPort, nx0, ny0, nx0 + factor, ny0 + factor));
             }
 
         };
@@ -181,10 +310,18 @@ public class MandelBrotViewerJPPF extends JFrame {
 
 
         statusLabel = new JLabel(String.format("x: \ty:"));
+        kernelLabel = new JLabel("Kernel: -");
+        JPanel statusBar = new JPanel(new BorderLayout());
+        statusBar.add(statusLabel, BorderLayout.CENTER);
+        statusBar.add(kernelLabel, BorderLayout.LINE_END);
         this.setJMenuBar(menuBar);
         this.getContentPane().add(toolBar, BorderLayout.PAGE_START);
         this.getContentPane().add(imagePanel, BorderLayout.CENTER);
-        this.getContentPane().add(statusLabel, BorderLayout.PAGE_END);
+        juliaPreview = new JuliaPreviewPanel(width / 4, height / 4);
+        JPanel sidePanel = new JPanel(new BorderLayout());
+        sidePanel.add(juliaPreview, BorderLayout.PAGE_START);
+        this.getContentPane().add(sidePanel, BorderLayout.LINE_END);
+        this.getContentPane().add(statusBar, BorderLayout.PAGE_END);
     }
 
     private void createToolBar() {
@@ -226,6 +363,11 @@ public class MandelBrotViewerJPPF extends JFrame {
         toolBar.add(maxIterationsInput);
         toolBar.addSeparator();
 
+        autoIterationsBox = new JCheckBox("Auto");
+        autoIterationsBox.setToolTipText("Derive the iteration limit from the zoom depth and a probe pass");
+        toolBar.add(autoIterationsBox);
+        toolBar.addSeparator();
+
         toolBar.add(new JLabel(("\tSuper samples:\t")));
         toolBar.addSeparator();
 
@@ -234,6 +376,44 @@ public class MandelBrotViewerJPPF extends JFrame {
         toolBar.add(superSamplesInput);
         toolBar.addSeparator();
 
+        formulaBox = new JComboBox<>(Formula.values());
+        toolBar.add(formulaBox);
+        toolBar.addSeparator();
+
+        toolBar.add(new JLabel("\tJulia c:\t"));
+        juliaInput = new JTextField("-0.8,0.156");
+        juliaInput.setHorizontalAlignment(JTextField.CENTER);
+        toolBar.add(juliaInput);
+        toolBar.addSeparator();
+
+        tileOrderBox = new JComboBox<>(new String[]{"Centre first", "Cursor first"});
+        tileOrderBox.setToolTipText("Which part of the frame is rendered first");
+        toolBar.add(tileOrderBox);
+        costMapBox = new JCheckBox("Cost map");
+        costMapBox.setToolTipText("Overlay the iterations each pixel took, blue is cheap and red expensive");
+        costMapBox.addActionListener(new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                imagePanel.repaint();
+            }
+        });
+        toolBar.add(costMapBox);
+        progressiveBox = new JCheckBox("Refine");
+        progressiveBox.setToolTipText(String.format("Keep adding samples while the frame is left alone, up to %d per pixel", PROGRESSIVE_LIMIT));
+        progressiveBox.addActionListener(new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                // a render in progress starts refinement once it is done
+                if (progressiveBox.isSelected() && accumulator != null && renderButton.isEnabled()) {
+                    progressiveTimer.restart();
+                } else {
+                    progressiveTimer.stop();
+                }
+            }
+        });
+        toolBar.add(progressiveBox);
+        toolBar.addSeparator();
+
         progressBar = new JProgressBar(JProgressBar.HORIZONTAL, 0, 100);
         progressBar.setEnabled(false);
         toolBar.add(progressBar);
@@ -241,13 +421,166 @@ public class MandelBrotViewerJPPF extends JFrame {
 
         calculationTimeLabel = new JLabel("\tLast calculation time:\t0ms");
         toolBar.add(calculationTimeLabel);
+
+        gridLabel = new JLabel("Grid: starting, local");
+        toolBar.addSeparator();
+        toolBar.add(gridLabel);
     }
 
     @Override
     public void dispose() {
+        refineTimer.stop();
+        progressiveTimer.stop();
+        previewExecutor.shutdownNow();
+        gridTimer.stop();
+        localExecutor.shutdownNow();
+        previewRenderer.shutdown();
+        juliaPreview.shutdown();
+        renderScheduler.shutdown();
+        cancelBuddhabrot();
+        buddhabrotExecutor.shutdownNow();
+        grid.close();
         super.dispose();
     }
 
+    // bounds of the rubber band including its one pixel outline
+    private Rectangle rubberBand() {
+        int x = Math.min(mouseDownPoint.x, mouseDragPoint.x);
+        int y = Math.min(mouseDownPoint.y, mouseDragPoint.y);
+        int w = Math.abs(mouseDownPoint.x - mouseDragPoint.x);
+        int h = Math.abs(mouseDownPoint.y - mouseDragPoint.y);
+        return new Rectangle(x, y, w + 1, h + 1);
+    }
+
+    private void interactiveZoom(Rectangle2D.Double next) {
+        cancelBuddhabrot();
+        // the running render belongs to the old viewport
+        renderScheduler.supersede();
+        progressiveTimer.stop();
+        showIdle();
+        // one history entry per gesture, not per wheel notch
+        if (!refineTimer.isRunning()) {
+            viewPortStack.push(viewPort);
+        }
+        Rectangle2D.Double previous = viewPort;
+        viewPort = next;
+
+        showScaledFrame(previous, next);
+        requestPreview();
+        refineTimer.restart();
+    }
+
+    // show the last frame stretched onto the new viewport until something better is available
+    private void showScaledFrame(Rectangle2D.Double previous, Rectangle2D.Double next) {
+        double sx = previous.getWidth() / next.getWidth();
+        double sy = previous.getHeight() / next.getHeight();
+        double tx = ((previous.getMinX() - next.getMinX()) + (PreciseViewPort.minXLo(previous) - PreciseViewPort.minXLo(next))) / next.getWidth() * width;
+        double ty = ((next.getMaxY() - previous.getMaxY()) + (PreciseViewPort.maxYLo(next) - PreciseViewPort.maxYLo(previous))) / next.getHeight() * height;
+
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2 = scaled.createGraphics();
+        g2.setColor(Color.WHITE);
+        g2.fillRect(0, 0, width, height);
+        g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g2.drawImage(image, new AffineTransform(sx, 0, 0, sy, tx, ty), null);
+        g2.dispose();
+        image = scaled;
+        displayBuffer.damageAll();
+    }
+
+    private void requestPreview() {
+        final long generation = previewGeneration.incrementAndGet();
+        final Rectangle2D.Double frameViewPort = viewPort;
+        final int iterations = maxIterations, samples = superSamples;
+        final Formula frameFormula = formula;
+        final double cRe = juliaRe, cIm = juliaIm;
+        previewExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                // newer requests queued behind this one make it pointless
+                if (generation != previewGeneration.get()) {
+                    return;
+                }
+                try {
+                    final PreviewRenderer.Frame frame = previewRenderer.render(frameViewPort, frameFormula, cRe, cIm, iterations, samples);
+                    SwingUtilities.invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (generation != previewGeneration.get()) {
+                                return;
+                            }
+                            Graphics2D g2 = image.createGraphics();
+                            g2.drawImage(frame.image, 0, 0, frame.image.getWidth() * frame.scale, frame.image.getHeight() * frame.scale, null);
+                            g2.dispose();
+                            displayBuffer.damageAll();
+                            calculationTimeLabel.setText(String.format("\tPreview 1/%d res, %d samples:\t%d ms", frame.scale, frame.samples, frame.nanos / 1000000));
+                        }
+                    });
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    private void launchBuddhabrot(int[] limits) {
+        cancelBuddhabrot();
+        renderScheduler.supersede();
+        progressiveTimer.stop();
+        showIdle();
+        previewGeneration.incrementAndGet();
+        refineTimer.stop();
+
+        final BuddhabrotRenderer renderer = new BuddhabrotRenderer(width, height, viewPort, limits);
+        if (grid.ready()) {
+            renderer.useGrid(grid.client());
+        } else {
+            renderer.useLocalThreads(JuliaPreviewPanel.RENDER_THREADS);
+        }
+        buddhabrotRenderer = renderer;
+        final long samples = BUDDHABROT_SAMPLES_PER_PIXEL * width * height;
+        final long startTime = System.currentTimeMillis();
+        kernelLabel.setText(limits.length == 1 ? String.format("Kernel: Buddhabrot %d", limits[0])
+                : String.format("Kernel: Nebulabrot %d/%d/%d", limits[0], limits[1], limits[2]));
+        buddhabrotExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    renderer.render(samples, 1, 1000, new BuddhabrotRenderer.Listener() {
+                        @Override
+                        public void published(final BufferedImage frame, final long counted, final boolean done) {
+                            SwingUtilities.invokeLater(new Runnable() {
+                                @Override
+                                public void run() {
+                                    if (buddhabrotRenderer != renderer) {
+                                        return;
+                                    }
+                                    Graphics2D g2 = image.createGraphics();
+                                    g2.drawImage(frame, 0, 0, null);
+                                    g2.dispose();
+                                    displayBuffer.damageAll();
+                                    calculationTimeLabel.setText(String.format("\t%s %d%% of %d Msamples:\t%d ms", done ? "Buddhabrot" : "Buddhabrot preview",
+                                            100 * counted / samples, samples / 1000000, System.currentTimeMillis() - startTime));
+                                }
+                            });
+                        }
+                    });
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    renderer.shutdown();
+                }
+            }
+        });
+    }
+
+    private void cancelBuddhabrot() {
+        if (buddhabrotRenderer != null) {
+            buddhabrotRenderer.cancel();
+            buddhabrotRenderer = null;
+        }
+    }
+
     private void launchCalculation() {
 
         try {
@@ -265,120 +598,428 @@ public class MandelBrotViewerJPPF extends JFrame {
             superSamples = 32;
         }
 
-        try {
-            maxIterations = Integer.parseUnsignedInt(maxIterationsInput.getText().trim());
-        } catch (NumberFormatException nfe) {
-            JOptionPane.showMessageDialog(this, "MaxIterations needs to be integer and 100 <=  and <= 5000");
-            return;
-        }
-        if (maxIterations < 100) {
-            maxIterationsInput.setText("100");
-            maxIterations = 100;
+        formula = (Formula) formulaBox.getSelectedItem();
+        if (formula == Formula.JULIA) {
+            try {
+                String[] parts = juliaInput.getText().split(",");
+                juliaRe = Double.parseDouble(parts[0].trim());
+                juliaIm = Double.parseDouble(parts[1].trim());
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                JOptionPane.showMessageDialog(this, "Julia c needs to be written as re,im");
+                return;
+            }
         }
-        if (maxIterations > 5000) {
-            maxIterationsInput.setText("5000");
-            maxIterations = 5000;
+
+        final boolean autoIterations = autoIterationsBox.isSelected();
+        if (!autoIterations) {
+            try {
+                maxIterations = Integer.parseUnsignedInt(maxIterationsInput.getText().trim());
+            } catch (NumberFormatException nfe) {
+                JOptionPane.showMessageDialog(this, "MaxIterations needs to be integer and 100 <=  and <= 5000");
+                return;
+            }
+            if (maxIterations < 100) {
+                maxIterationsInput.setText("100");
+                maxIterations = 100;
+            }
+            if (maxIterations > 5000) {
+                maxIterationsInput.setText("5000");
+                maxIterations = 5000;
+            }
         }
 
+        render(superSamples, false);
+    }
+
+    // renders the current settings at `samples` per pixel, adding to what the frame already holds; a refinement pass
+    // leaves the controls alone so the user can go on
+    private void render(final int samples, final boolean refinement) {
+        final boolean autoIterations = autoIterationsBox.isSelected();
+        final double minXLo = PreciseViewPort.minXLo(viewPort), maxYLo = PreciseViewPort.maxYLo(viewPort);
+        final FractalKernel kernel = formula.kernel(viewPort, width, height, juliaRe, juliaIm);
+        kernelLabel.setText(String.format("Kernel: %s%s", kernel.label(),
+                formula == Formula.MANDELBROT && PrecisionTier.exhausted(viewPort.getMinX(), viewPort.getMaxY(), viewPort.getWidth(), viewPort.getHeight(), width, height) ? " (precision limit reached)" : ""));
+
+        // a full render supersedes any preview or Buddhabrot still in flight
+        previewGeneration.incrementAndGet();
+        cancelBuddhabrot();
+        refineTimer.stop();
+        progressiveTimer.stop();
 
-        // launch swingworker
         final long startTime = System.currentTimeMillis();
-        if (swingWorker != null) {
-            swingWorker.cancel(true);
+        final double focusX, focusY;
+        if (tileOrderBox.getSelectedIndex() == 1 && lastMousePoint != null) {
+            focusX = lastMousePoint.x;
+            focusY = lastMousePoint.y;
+        } else {
+            focusX = width / 2.0;
+            focusY = height / 2.0;
+        }
+        // the render works on a copy of the settings, later edits belong to the next request
+        final Rectangle2D.Double frameViewPort = viewPort;
+        final int iterations = maxIterations;
+        progressBar.setValue(0);
+        progressBar.setEnabled(true);
+        if (!refinement) {
+            renderButton.setEnabled(false);
+            zoomOutButton.setEnabled(false);
         }
-        swingWorker = new SwingWorker<Void, Void>() {
+        long submitted = renderScheduler.submit(new RenderScheduler.Render() {
             @Override
-            protected Void doInBackground() throws Exception {
-                Random rnd = new Random();
-                JPPFJob job = new JPPFJob();
-
-                // TODO - voeg taken toe aan de Job
-                // bvb.  job.add(MijnTaakObject)
-                try {
-                    for (int w = 0; w < width; w++) {
-                        //setProgress((int) (100.0 * w / width));
-
-                        RunTask task = new RunTask(maxIterations, superSamples, viewPort.getMinX(), viewPort.getMaxY(), viewPort.getWidth(), viewPort.getHeight(), w, width, height);
-                        job.add(task);
-                        // submit de job
-
-
+            public void run(final long generation) throws Exception {
+                int frameIterations = iterations;
+                if (autoIterations) {
+                    frameIterations = IterationBudget.estimate(kernel, frameViewPort);
+                    final int chosen = frameIterations;
+                    SwingUtilities.invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (renderScheduler.isCurrent(generation)) {
+                                maxIterations = chosen;
+                                maxIterationsInput.setText(Integer.toString(chosen));
+                            }
+                        }
+                    });
+                }
+                // the last frame's costs guide the load balancer when this one is over the same region
+                final CostMap previousCost = costMap;
+                // the same frame keeps its samples and costs, anything else starts over
+                SampleAccumulator held = accumulator;
+                CostMap heldCost = previousCost;
+                if (held == null || heldCost == null || !held.matches(width, height, frameViewPort, kernel, frameIterations)) {
+                    held = new SampleAccumulator(width, height, frameViewPort, kernel, frameIterations);
+                    heldCost = new CostMap(width, height, frameViewPort, kernel, frameIterations, samples);
+                }
+                final SampleAccumulator frameSamples = held;
+                final CostMap frameCost = heldCost;
+                renderScheduler.publish(generation, new Runnable() {
+                    @Override
+                    public void run() {
+                        accumulator = frameSamples;
+                        costMap = frameCost;
+                    }
+                });
+                List<RunTask> tasks = new ArrayList<>();
+                List<Rectangle> complete = new ArrayList<>();
+                ConjugateSymmetry symmetry = ConjugateSymmetry.of(kernel, frameViewPort.getMaxY(), frameViewPort.getHeight(), height);
+
+                // the mirrored rows are not sent, the client copies them as their source tiles come back
+                for (Rectangle tile : TileOrder.tiles(width, height, TILE_SIZE, symmetry, focusX, focusY)) {
+                    // only the samples the tile does not hold yet, a tile that has them all is just redrawn
+                    int first = Math.min(samples, frameSamples.samples(tile));
+                    if (first == samples) {
+                        complete.add(tile);
+                        continue;
+                    }
+                    RunTask task = new RunTask(frameIterations, samples, frameViewPort.getMinX(), frameViewPort.getMaxY(), frameViewPort.getWidth(), frameViewPort.getHeight(),
+                            tile.x, tile.y, tile.width, tile.height, width, height);
+                    task.firstSample = first;
+                    tasks.add(task);
+                }
+                for (RunTask task : tasks) {
+                    task.getMinXLo = minXLo;
+                    task.getMaxYLo = maxYLo;
+                    task.kernel = kernel;
+                    task.recordCost = true;
+                    task.keepSums = true;
+                }
+                for (Rectangle tile : complete) {
+                    if (!drawHeldTile(generation, tile, frameSamples, symmetry)) {
+                        return;
                     }
-                    System.out.println("Submitted async job, waiting for results");
-                    job = jppfClient.submitAsync(job);
-                    // wachten op het resultaat
-                    int lastExecutedTaskCount = 0;
-                    while (job.executedTaskCount() < job.getTaskCount()) {
-                        if (job.executedTaskCount() > lastExecutedTaskCount) {
-                            setProgress((int) (100.0 * job.executedTaskCount() / job.getTaskCount()));
-
-                            //System.out.printf("Executed %d of %d tasks.\n", job.executedTaskCount(), job.getTaskCount());
-                            lastExecutedTaskCount = job.executedTaskCount();
+                }
+                int total = tasks.size();
+                if (grid.ready()) {
+                    tasks = renderOnGrid(generation, tasks, frameSamples, frameCost, symmetry, previousCost);
+                }
+                if (!tasks.isEmpty()) {
+                    renderLocally(generation, tasks, total - tasks.size(), total, frameSamples, frameCost, symmetry);
+                }
+                if (!renderScheduler.isCurrent(generation)) {
+                    return;
+                }
+                frameCost.complete = true;
+                // a lower count than the frame already holds draws nothing, refinement carries on from what is there
+                final int heldSamples = frameSamples.samples(new Rectangle(0, 0, width, height));
+
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!renderScheduler.isCurrent(generation)) {
+                            return;
+                        }
+                        damageFinishedTiles();
+                        displayBuffer.damageAll();
+                        showIdle();
+
+                        lastCalculationTime = System.currentTimeMillis() - startTime;
+                        calculationTimeLabel.setText(String.format("\tLast calculation time:\t%d ms, %d samples", lastCalculationTime, heldSamples));
+                        refinedSamples = heldSamples;
+                        if (progressiveBox.isSelected()) {
+                            progressiveTimer.restart();
                         }
-                        Thread.sleep(50);
                     }
+                });
+            }
 
-                    System.out.println("Received all results");
+            @Override
+            public void failed(final long generation, final Exception e) {
+                // whatever was drawn stays, the controls come back like after a finished render
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!renderScheduler.isCurrent(generation)) {
+                            return;
+                        }
+                        damageFinishedTiles();
+                        showIdle();
+                        calculationTimeLabel.setText(String.format("\tRender failed:\t%s", e.getMessage()));
+                    }
+                });
+            }
+        });
+        refinementGeneration = refinement ? submitted : 0;
+    }
 
-                    // Todo - verwerk het resultaat (stel de rgb waarden in op de 'image')
+    // input holds refinement back until the user has left the frame alone for PROGRESSIVE_DELAY; a pass already under
+    // way stops at its next tile and starts over later from the samples it got to
+    private void postponeRefinement() {
+        if (refinementGeneration != 0 && renderScheduler.isCurrent(refinementGeneration)) {
+            renderScheduler.supersede();
+            showIdle();
+            progressiveTimer.restart();
+        } else if (progressiveTimer.isRunning()) {
+            progressiveTimer.restart();
+        }
+        refinementGeneration = 0;
+    }
 
-                    int w = 0;
-                    for (Task<?> allResult : job.getAllResults()) {
-                        RunTask rT = (RunTask) allResult;
-                        for (int i = 0; i < height; i++) {
-                            //System.out.println(rT.getResult()[i][1]);
-                            image.setRGB(w, i, new Color(rT.getResult()[i][0], rT.getResult()[i][1], rT.getResult()[i][2]).getRGB());
-                        }
+    private void exportImage() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new File("mandelbrot.png"));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        final File file = chooser.getSelectedFile();
+        // the frame as it is now, rendering may go on while it is encoded
+        final int[] argb = image.getRGB(0, 0, width, height, null, 0, width);
+        new SwingWorker<ParallelPngWriter, Void>() {
+            @Override
+            protected ParallelPngWriter doInBackground() throws Exception {
+                ParallelPngWriter writer = new ParallelPngWriter(file, width, height, Runtime.getRuntime().availableProcessors());
+                try {
+                    writer.writeBand(argb, height);
+                    writer.close();
+                } finally {
+                    IOUtils.closeQuietly(writer);
+                }
+                return writer;
+            }
 
-                        w++;
-                    }
+            @Override
+            protected void done() {
+                try {
+                    ParallelPngWriter writer = get();
+                    calculationTimeLabel.setText(String.format("\tLast calculation time:\t%d ms, %s encoded at %.1f MB/s", lastCalculationTime,
+                            file.getName(), writer.megabytesPerSecond()));
                 } catch (Exception e) {
                     e.printStackTrace();
+                    JOptionPane.showMessageDialog(MandelBrotViewerJPPF.this, "Export failed: " + e.getCause());
                 }
+            }
+        }.execute();
+    }
 
-
-
+    private void exportCostMap() {
+        final CostMap cost = costMap;
+        if (cost == null) {
+            JOptionPane.showMessageDialog(this, "Nothing has been rendered yet");
+            return;
+        }
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new File("cost.csv"));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        final File file = chooser.getSelectedFile();
+        // .csv as text, anything else in the raw binary layout of CostMap.writeRaw
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                if (file.getName().toLowerCase().endsWith(".csv")) {
+                    cost.writeCsv(file);
+                } else {
+                    cost.writeRaw(file);
+                }
                 return null;
             }
 
-
             @Override
             protected void done() {
-                setProgress(100);
-                imagePanel.repaint();
-                renderButton.setEnabled(true);
-                if (!viewPortStack.empty()) {
-                    zoomOutButton.setEnabled(true);
+                try {
+                    get();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    JOptionPane.showMessageDialog(MandelBrotViewerJPPF.this, "Export failed: " + e.getCause());
                 }
-                progressBar.setEnabled(false);
+            }
+        }.execute();
+    }
+
+    // controls back to their idle state, for a finished render or one that something else replaced
+    private void showIdle() {
+        progressBar.setValue(100);
+        renderButton.setEnabled(true);
+        if (!viewPortStack.empty()) {
+            zoomOutButton.setEnabled(true);
+        }
+        progressBar.setEnabled(false);
+    }
 
-                long endTime = System.currentTimeMillis();
-                calculationTimeLabel.setText(String.format("\tLast calculation time:\t%d ms", endTime - startTime));
+    // returns the tasks that still need rendering, none unless the grid dropped before the frame was done
+    private List<RunTask> renderOnGrid(long generation, List<RunTask> tasks, SampleAccumulator frameSamples, CostMap frameCost,
+                                       ConjugateSymmetry symmetry, CostMap previousCost) throws Exception {
+        SpeculativeJob job = new SpeculativeJob(grid.client(), localExecutor, "Mandelbrot frame", tasks);
+        job.previousCost = previousCost;
+        System.out.printf("Submitted async job of %d tasks (%d mirrored rows), waiting for results\n", job.taskCount(), symmetry.mirroredRows());
+        job.submit();
+        // wachten op het resultaat, slow tasks are re-issued while waiting
+        int lastExecutedTaskCount = 0;
+        long lostSince = 0;
+        while (!job.await(50)) {
+            if (!drawReturnedTiles(generation, job, frameSamples, frameCost, symmetry)) {
+                // superseded, the grid can drop the rest of the frame
+                job.cancel();
+                return new ArrayList<>();
+            }
+            if (job.completed() > lastExecutedTaskCount) {
+                showProgress(generation, (int) (100.0 * job.completed() / job.taskCount()));
 
+                //System.out.printf("Executed %d of %d tasks.\n", job.completed(), job.taskCount());
+                lastExecutedTaskCount = job.completed();
             }
+            if (grid.ready()) {
+                lostSince = 0;
+            } else if (lostSince == 0) {
+                lostSince = System.currentTimeMillis();
+            } else if (System.currentTimeMillis() - lostSince > GRID_LOST_DELAY) {
+                // the client would hold the job until the driver is back, finish the frame here instead
+                job.cancel();
+                drawReturnedTiles(generation, job, frameSamples, frameCost, symmetry);
+                List<RunTask> results = job.results();
+                List<RunTask> missing = new ArrayList<>();
+                for (int i = 0; i < tasks.size(); i++) {
+                    if (results.get(i) == null) {
+                        missing.add(new RunTask(tasks.get(i)));
+                    }
+                }
+                System.out.printf("Grid connection lost, rendering the last %d of %d tasks locally\n", missing.size(), tasks.size());
+                return missing;
+            }
+        }
 
+        System.out.printf("Received all results, %d tasks re-issued, %d backups won\n", job.backups, job.backupWins.get());
 
-        };
-        progressBar.setEnabled(true);
-        renderButton.setEnabled(false);
-        zoomOutButton.setEnabled(false);
-        swingWorker.addPropertyChangeListener(new PropertyChangeListener() {
-            @Override
-            public void propertyChange(PropertyChangeEvent evt) {
-                if (evt.getPropertyName().equals("progress")) {
-                    progressBar.setValue((Integer) evt.getNewValue());
+        drawReturnedTiles(generation, job, frameSamples, frameCost, symmetry);
+        return new ArrayList<>();
+    }
 
+    private void renderLocally(long generation, List<RunTask> tasks, int done, int total, SampleAccumulator frameSamples, CostMap frameCost,
+                               ConjugateSymmetry symmetry) throws Exception {
+        CompletionService<RunTask> completionService = new ExecutorCompletionService<>(localExecutor);
+        List<Future<RunTask>> futures = new ArrayList<>();
+        for (RunTask task : tasks) {
+            futures.add(completionService.submit(task, task));
+        }
+        for (int t = 0; t < tasks.size(); t++) {
+            if (!drawTile(generation, completionService.take().get(), frameSamples, frameCost, symmetry)) {
+                // superseded, tiles already running finish but the queued ones never start
+                for (Future<RunTask> future : futures) {
+                    future.cancel(false);
                 }
+                return;
+            }
+            showProgress(generation, (int) (100.0 * (done + t + 1) / total));
+        }
+    }
 
-                if (!evt.getOldValue().equals(evt.getNewValue())) {
-                    imagePanel.repaint();
+    private void showProgress(final long generation, final int progress) {
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                if (renderScheduler.isCurrent(generation)) {
+                    progressBar.setValue(progress);
+                    damageFinishedTiles();
                 }
             }
         });
-        swingWorker.execute();
-        swingWorker = null;
     }
 
+    // writes the tiles that came back since the last call, and their mirror images, into the image; false once superseded
+    private boolean drawReturnedTiles(long generation, SpeculativeJob job, SampleAccumulator frameSamples, CostMap frameCost, ConjugateSymmetry symmetry) {
+        RunTask rT;
+        while ((rT = job.poll()) != null) {
+            if (!drawTile(generation, rT, frameSamples, frameCost, symmetry)) {
+                return false;
+            }
+        }
+        return renderScheduler.isCurrent(generation);
+    }
+
+    // adds the tile to the frame's samples and costs, even if it turns out stale since it is still right for them, and
+    // writes it to the raster; false once superseded
+    private boolean drawTile(long generation, RunTask rT, SampleAccumulator frameSamples, CostMap frameCost, ConjugateSymmetry symmetry) {
+        if (!renderScheduler.isCurrent(generation)) {
+            return false;
+        }
+        Rectangle tile = new Rectangle(rT.tileX, rT.tileY, rT.tileWidth, rT.tileHeight);
+        Rectangle mirror = TileOrder.mirror(tile, symmetry);
+        int[] argb = rT.getResult();
+        if (rT.sampleSums != null) {
+            frameSamples.add(tile, rT.firstSample, rT.superSamples, rT.sampleSums);
+            if (mirror != null) {
+                frameSamples.mirror(tile, mirror, symmetry);
+            }
+            argb = frameSamples.argb(tile);
+        }
+        if (rT.costIterations != null) {
+            frameCost.record(tile, rT.costIterations, rT.superSamples - rT.firstSample, rT.nanos);
+            if (mirror != null) {
+                frameCost.recordMirror(tile, mirror, symmetry);
+            }
+        }
+        return writeTile(generation, tile, mirror, argb, symmetry);
+    }
+
+    // a tile that already holds every sample asked for, redrawn from the accumulator
+    private boolean drawHeldTile(long generation, Rectangle tile, SampleAccumulator frameSamples, ConjugateSymmetry symmetry) {
+        return writeTile(generation, tile, TileOrder.mirror(tile, symmetry), frameSamples.argb(tile), symmetry);
+    }
+
+    // the tile and the conjugate rows of its mirror image into the raster; stale tiles never reach the raster, the check
+    // and the write are one step
+    private boolean writeTile(long generation, final Rectangle tile, final Rectangle mirror, final int[] argb, final ConjugateSymmetry symmetry) {
+        return renderScheduler.publish(generation, new Runnable() {
+            @Override
+            public void run() {
+                image.setRGB(tile.x, tile.y, tile.width, tile.height, argb, 0, tile.width);
+                finishedTiles.add(tile);
+                if (mirror != null) {
+                    for (int h = mirror.y; h < mirror.y + mirror.height; h++) {
+                        image.setRGB(tile.x, h, tile.width, 1, argb, (symmetry.source(h) - tile.y) * tile.width, tile.width);
+                    }
+                    finishedTiles.add(mirror);
+                }
+            }
+        });
+    }
+
+    private void damageFinishedTiles() {
+        Rectangle tile;
+        while ((tile = finishedTiles.poll()) != null) {
+            displayBuffer.damage(tile);
+        }
+    }
 
     private void clearImage() {
 
@@ -0,0 +1,41 @@
+package be.kuleuven.mandelbrot;
+
+// z -> z^3 + c
+public final class Multibrot3Kernel implements FractalKernel {
+
+    @Override
+    public int iterate(double cxHi, double cxLo, double cyHi, double cyLo, int maxIterations) {
+        double x0 = cxHi + cxLo, y0 = cyHi + cyLo;
+        double x = 0, y = 0;
+        int iteration = 0;
+        while (x * x + y * y < 4 && iteration < maxIterations) {
+            double xx = x * x, yy = y * y;
+            double xtemp = x * (xx - 3 * yy) + x0;
+            y = y * (3 * xx - yy) + y0;
+            x = xtemp;
+            iteration++;
+        }
+        return iteration;
+    }
+
+    @Override
+    public boolean conjugateSymmetric() {
+        return true;
+    }
+
+    @Override
+    public String label() {
+        return "Multibrot z^3";
+    }
+
+    // stateless, every instance draws the same image
+    @Override
+    public boolean equals(Object other) {
+        return other != null && other.getClass() == getClass();
+    }
+
+    @Override
+    public int hashCode() {
+        return getClass().hashCode();
+    }
+}
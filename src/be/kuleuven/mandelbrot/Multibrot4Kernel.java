@@ -0,0 +1,41 @@
+package be.kuleuven.mandelbrot;
+
+// z -> z^4 + c
+public final class Multibrot4Kernel implements FractalKernel {
+
+    @Override
+    public int iterate(double cxHi, double cxLo, double cyHi, double cyLo, int maxIterations) {
+        double x0 = cxHi + cxLo, y0 = cyHi + cyLo;
+        double x = 0, y = 0;
+        int iteration = 0;
+        while (x * x + y * y < 4 && iteration < maxIterations) {
+            double xx = x * x, yy = y * y;
+            double xtemp = xx * xx - 6 * xx * yy + yy * yy + x0;
+            y = 4 * x * y * (xx - yy) + y0;
+            x = xtemp;
+            iteration++;
+        }
+        return iteration;
+    }
+
+    @Override
+    public boolean conjugateSymmetric() {
+        return true;
+    }
+
+    @Override
+    public String label() {
+        return "Multibrot z^4";
+    }
+
+    // stateless, every instance draws the same image
+    @Override
+    public boolean equals(Object other) {
+        return other != null && other.getClass() == getClass();
+    }
+
+    @Override
+    public int hashCode() {
+        return getClass().hashCode();
+    }
+}
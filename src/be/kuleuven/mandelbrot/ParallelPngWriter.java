@@ -0,0 +1,283 @@
+package be.kuleuven.mandelbrot;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+// 8 bit RGB PNG encoder that deflates on all cores, the way pigz does: the filtered rows are cut into chunks of about
+// CHUNK_BYTES that are compressed independently as raw deflate, each primed with the last 32 KB of the chunk before it so
+// the ratio hardly suffers. Every chunk but the last ends on a sync flush, a byte boundary, so the pieces simply
+// concatenate into one zlib stream behind a single header; the Adler-32 of each chunk is computed alongside and combined
+// in order for the trailer. Compressed chunks are written in order, one IDAT each, through a FileChannel with a large
+// buffer. At most 2 chunks per thread are in flight.
+public class ParallelPngWriter implements BandWriter {
+    private static final int CHUNK_BYTES = 1 << 18;
+    private static final int WINDOW = 1 << 15;
+    private static final int BUFFER_SIZE = 1 << 20;
+    // deflate, 32 KB window, default level
+    private static final byte[] ZLIB_HEADER = {0x78, (byte) 0x9c};
+
+    private static class Chunk {
+        byte[] compressed;
+        int length;
+        long adler, rawLength;
+    }
+
+    private final int width, height, level;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final ExecutorService pool;
+    private final int maxInFlight;
+    private final Deque<Future<Chunk>> inFlight = new ArrayDeque<>();
+
+    // filtered rows waiting to fill a chunk
+    private final int rowsPerChunk;
+    private byte[] pending;
+    private int pendingRows;
+    private byte[] previous;
+
+    private int rowsWritten;
+    private long bytesWritten, adler = 1;
+    private boolean headerWritten, closed;
+    // time spent inside writeBand() and close(), what the caller waits for
+    private long encodeNanos;
+
+    public ParallelPngWriter(File file, int width, int height, int threads) throws IOException {
+        this(file, width, height, threads, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public ParallelPngWriter(File file, int width, int height, int threads, int level) throws IOException {
+        long start = System.nanoTime();
+        this.width = width;
+        this.height = height;
+        this.level = level;
+        this.channel = new FileOutputStream(file).getChannel();
+        this.pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "PNG deflate");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.maxInFlight = 2 * threads;
+        this.rowsPerChunk = Math.max(1, CHUNK_BYTES / (1 + 3 * width));
+        this.pending = new byte[rowsPerChunk * (1 + 3 * width)];
+
+        buffer.put(PngStreamWriter.SIGNATURE);
+        bytesWritten = PngStreamWriter.SIGNATURE.length;
+        writeChunk("IHDR", PngStreamWriter.header(width, height), 0, 13);
+        encodeNanos += System.nanoTime() - start;
+    }
+
+    @Override
+    public void writeBand(int[] argb, int rows) throws IOException {
+        long start = System.nanoTime();
+        if (rowsWritten + rows > height) {
+            throw new IOException(String.format("Band of %d rows exceeds image height %d", rows, height));
+        }
+        int stride = 1 + 3 * width;
+        for (int h = 0; h < rows; h++) {
+            PngStreamWriter.filterRow(argb, h * width, width, pending, pendingRows * stride);
+            pendingRows++;
+            rowsWritten++;
+            if (pendingRows == rowsPerChunk && rowsWritten < height) {
+                submit(false);
+            }
+        }
+        encodeNanos += System.nanoTime() - start;
+    }
+
+    private void submit(final boolean last) throws IOException {
+        final byte[] data = pending;
+        final int length = pendingRows * (1 + 3 * width);
+        final byte[] dictionary = previous;
+        final int dictionaryLength = previous == null ? 0 : Math.min(WINDOW, previous.length);
+        inFlight.add(pool.submit(new Callable<Chunk>() {
+            @Override
+            public Chunk call() {
+                Adler32 checksum = new Adler32();
+                checksum.update(data, 0, length);
+
+                Deflater deflater = new Deflater(level, true);
+                try {
+                    if (dictionary != null) {
+                        deflater.setDictionary(dictionary, dictionary.length - dictionaryLength, dictionaryLength);
+                    }
+                    deflater.setInput(data, 0, length);
+                    if (last) {
+                        deflater.finish();
+                    }
+                    Chunk chunk = new Chunk();
+                    chunk.compressed = new byte[length / 2 + 64];
+                    while (true) {
+                        if (chunk.length == chunk.compressed.length) {
+                            chunk.compressed = Arrays.copyOf(chunk.compressed, 2 * chunk.compressed.length);
+                        }
+                        int n = last ? deflater.deflate(chunk.compressed, chunk.length, chunk.compressed.length - chunk.length)
+                                : deflater.deflate(chunk.compressed, chunk.length, chunk.compressed.length - chunk.length, Deflater.SYNC_FLUSH);
+                        chunk.length += n;
+                        // a sync flush is complete once it leaves room to spare, a finish once the deflater says so
+                        if (last ? deflater.finished() : chunk.length < chunk.compressed.length) {
+                            break;
+                        }
+                    }
+                    chunk.adler = checksum.getValue();
+                    chunk.rawLength = length;
+                    return chunk;
+                } finally {
+                    deflater.end();
+                }
+            }
+        }));
+        previous = data;
+        pending = last ? null : new byte[pending.length];
+        pendingRows = 0;
+
+        // write whatever finished at the head, wait for it once too much is queued
+        while (!inFlight.isEmpty() && (inFlight.peek().isDone() || inFlight.size() > maxInFlight)) {
+            writeCompressed(inFlight.poll());
+        }
+    }
+
+    private void writeCompressed(Future<Chunk> future) throws IOException {
+        Chunk chunk;
+        try {
+            chunk = future.get();
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while compressing", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Compression failed", e.getCause());
+        }
+        adler = combineAdler32(adler, chunk.adler, chunk.rawLength);
+        byte[] data = chunk.compressed;
+        int length = chunk.length;
+        if (!headerWritten) {
+            byte[] withHeader = new byte[length + 2];
+            System.arraycopy(ZLIB_HEADER, 0, withHeader, 0, 2);
+            System.arraycopy(data, 0, withHeader, 2, length);
+            data = withHeader;
+            length += 2;
+            headerWritten = true;
+        }
+        writeChunk("IDAT", data, 0, length);
+    }
+
+    // adler32_combine from zlib: the checksum of A followed by B from those of A and B and the length of B
+    static long combineAdler32(long adler1, long adler2, long length2) {
+        final long base = 65521;
+        long remainder = length2 % base;
+        long sum1 = adler1 & 0xffff;
+        long sum2 = (remainder * sum1) % base;
+        sum1 += (adler2 & 0xffff) + base - 1;
+        sum2 += ((adler1 >> 16) & 0xffff) + ((adler2 >> 16) & 0xffff) + base - remainder;
+        if (sum1 >= base) {
+            sum1 -= base;
+        }
+        if (sum1 >= base) {
+            sum1 -= base;
+        }
+        if (sum2 >= base << 1) {
+            sum2 -= base << 1;
+        }
+        if (sum2 >= base) {
+            sum2 -= base;
+        }
+        return sum1 | (sum2 << 16);
+    }
+
+    @Override
+    public long bytesWritten() {
+        return bytesWritten;
+    }
+
+    // uncompressed image bytes encoded per second of the caller's time
+    public double megabytesPerSecond() {
+        return (double) width * height * 3 / Math.max(1, encodeNanos) * 1e3;
+    }
+
+    public long encodeNanos() {
+        return encodeNanos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        long start = System.nanoTime();
+        try {
+            if (rowsWritten != height) {
+                throw new IOException(String.format("Only %d of %d rows were written", rowsWritten, height));
+            }
+            submit(true);
+            while (!inFlight.isEmpty()) {
+                writeCompressed(inFlight.poll());
+            }
+            byte[] trailer = {(byte) (adler >>> 24), (byte) (adler >>> 16), (byte) (adler >>> 8), (byte) adler};
+            writeChunk("IDAT", trailer, 0, 4);
+            writeChunk("IEND", new byte[0], 0, 0);
+            flushBuffer();
+        } finally {
+            for (Future<Chunk> future : inFlight) {
+                future.cancel(true);
+            }
+            pool.shutdownNow();
+            channel.close();
+            encodeNanos += System.nanoTime() - start;
+        }
+    }
+
+    private void writeChunk(String type, byte[] data, int off, int len) throws IOException {
+        byte[] t = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(t);
+        crc.update(data, off, len);
+        ensureRoom(8);
+        buffer.putInt(len);
+        buffer.put(t);
+        if (len > buffer.capacity()) {
+            flushBuffer();
+            ByteBuffer wrapped = ByteBuffer.wrap(data, off, len);
+            while (wrapped.hasRemaining()) {
+                channel.write(wrapped);
+            }
+        } else {
+            ensureRoom(len);
+            buffer.put(data, off, len);
+        }
+        ensureRoom(4);
+        buffer.putInt((int) crc.getValue());
+        bytesWritten += 12 + len;
+    }
+
+    private void ensureRoom(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flushBuffer();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
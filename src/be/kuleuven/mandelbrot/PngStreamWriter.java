@@ -0,0 +1,158 @@
+package be.kuleuven.mandelbrot;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+// Streaming 8 bit RGB PNG encoder: rows are filtered and deflated as they arrive and emitted as a sequence of IDAT chunks.
+public class PngStreamWriter implements BandWriter {
+    static final byte[] SIGNATURE = {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private final int width, height;
+    private final DataOutputStream out;
+    private final IdatOutputStream idat;
+    private final DeflaterOutputStream deflater;
+    private final Deflater def;
+    private final byte[] row;
+    private int rowsWritten;
+    private long bytesWritten;
+    // close() may be called again from a cleanup path, only the first call writes
+    private boolean closed;
+
+    public PngStreamWriter(File file, int width, int height) throws IOException {
+        this(new FileOutputStream(file), width, height, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public PngStreamWriter(OutputStream os, int width, int height, int level) throws IOException {
+        this.width = width;
+        this.height = height;
+        this.out = new DataOutputStream(new BufferedOutputStream(os, CHUNK_SIZE));
+        this.row = new byte[1 + 3 * width];
+
+        out.write(SIGNATURE);
+        bytesWritten = SIGNATURE.length;
+        writeChunk("IHDR", header(width, height), 0, 13);
+
+        def = new Deflater(level);
+        idat = new IdatOutputStream();
+        deflater = new DeflaterOutputStream(idat, def, CHUNK_SIZE);
+    }
+
+    @Override
+    public void writeBand(int[] argb, int rows) throws IOException {
+        if (rowsWritten + rows > height) {
+            throw new IOException(String.format("Band of %d rows exceeds image height %d", rows, height));
+        }
+        for (int h = 0; h < rows; h++) {
+            filterRow(argb, h * width, width, row, 0);
+            deflater.write(row);
+        }
+        rowsWritten += rows;
+    }
+
+    // IHDR contents of an 8 bit RGB image
+    static byte[] header(int width, int height) throws IOException {
+        ByteArrayOutputStream ihdr = new ByteArrayOutputStream(13);
+        DataOutputStream d = new DataOutputStream(ihdr);
+        d.writeInt(width);
+        d.writeInt(height);
+        d.writeByte(8);  // bit depth
+        d.writeByte(2);  // colour type: truecolour
+        d.writeByte(0);  // compression
+        d.writeByte(0);  // filter method
+        d.writeByte(0);  // no interlace
+        return ihdr.toByteArray();
+    }
+
+    // one filtered scanline of 1 + 3 * width bytes at row[pos]
+    static void filterRow(int[] argb, int offset, int width, byte[] row, int pos) {
+        // filter type 1 (Sub): each byte minus the same channel of the pixel to the left
+        row[pos] = 1;
+        int prev = 0;
+        for (int w = 0; w < width; w++) {
+            int p = argb[offset + w];
+            int i = pos + 1 + 3 * w;
+            row[i] = (byte) ((p >> 16) - (prev >> 16));
+            row[i + 1] = (byte) ((p >> 8) - (prev >> 8));
+            row[i + 2] = (byte) (p - prev);
+            prev = p;
+        }
+    }
+
+    @Override
+    public long bytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (rowsWritten != height) {
+            out.close();
+            throw new IOException(String.format("Only %d of %d rows were written", rowsWritten, height));
+        }
+        deflater.finish();
+        idat.close();
+        def.end();
+        writeChunk("IEND", new byte[0], 0, 0);
+        out.close();
+    }
+
+    private void writeChunk(String type, byte[] data, int off, int len) throws IOException {
+        byte[] t = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(t);
+        crc.update(data, off, len);
+        out.writeInt(len);
+        out.write(t);
+        out.write(data, off, len);
+        out.writeInt((int) crc.getValue());
+        bytesWritten += 12 + len;
+    }
+
+    // wraps everything the deflater produces into IDAT chunks of at most CHUNK_SIZE bytes
+    private class IdatOutputStream extends OutputStream {
+        private final byte[] buffer = new byte[CHUNK_SIZE];
+        private int count;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                flushChunk();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) {
+                    flushChunk();
+                }
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flushChunk();
+        }
+
+        private void flushChunk() throws IOException {
+            if (count > 0) {
+                writeChunk("IDAT", buffer, 0, count);
+                count = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,436 @@
+package be.kuleuven.mandelbrot;
+
+import org.apache.commons.io.IOUtils;
+import org.jppf.client.JPPFClient;
+import org.jppf.client.JPPFJob;
+import org.jppf.client.event.JobEvent;
+import org.jppf.client.event.JobListenerAdapter;
+import org.jppf.node.protocol.Task;
+
+import java.awt.*;
+import java.awt.geom.Rectangle2D;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Headless renderer for images that do not fit in memory. The image is computed in horizontal bands, each band split
+// into RunTask tiles, and every finished band is streamed to a PNG or BigTIFF file. At most `inFlight` bands exist at once.
+// With a checkpoint every tile is saved as it comes back; a rerun with the same settings takes the saved tiles from disk,
+// renders only the missing ones and writes the output file again from the start.
+// Rows mirrored across the real axis are not rendered: bands are written top to bottom, so the source rows above the axis
+// have always come back first and are held until their mirror images are written. When holding them would take more than
+// MIRROR_MEMORY of the heap, the mirrored rows are rendered like any other.
+public class PosterRenderer {
+    private static final double MIRROR_MEMORY = .25;
+
+    private final int width, height;
+    private final Rectangle2D.Double viewPort;
+    private final FractalKernel kernel;
+    private final int maxIterations, superSamples;
+    private final int bandRows, tileColumns, inFlight;
+    private final ConjugateSymmetry symmetry;
+    // source rows of the mirrored range that were written but not mirrored yet, by row
+    private final Map<Integer, int[]> sourceRows = new HashMap<>();
+
+    private ExecutorService executor;
+    private JPPFClient jppfClient;
+    private RenderCheckpoint checkpoint;
+    private int restored;
+
+    public PosterRenderer(int width, int height, Rectangle2D.Double viewPort, FractalKernel kernel, int maxIterations, int superSamples,
+                          int bandRows, int tileColumns, int inFlight) {
+        this.width = width;
+        this.height = height;
+        this.viewPort = viewPort;
+        this.kernel = kernel;
+        this.maxIterations = maxIterations;
+        this.superSamples = superSamples;
+        this.bandRows = bandRows;
+        this.tileColumns = tileColumns;
+        this.inFlight = inFlight;
+        ConjugateSymmetry symmetry = ConjugateSymmetry.of(kernel, viewPort.getMaxY(), viewPort.getHeight(), height);
+        if (4.0 * width * symmetry.mirroredRows() > MIRROR_MEMORY * Runtime.getRuntime().maxMemory()) {
+            symmetry = ConjugateSymmetry.NONE;
+        }
+        this.symmetry = symmetry;
+    }
+
+    public void useLocalThreads(int threads) {
+        executor = Executors.newFixedThreadPool(threads);
+    }
+
+    public void useGrid(JPPFClient jppfClient) {
+        this.jppfClient = jppfClient;
+    }
+
+    public void useCheckpoint(RenderCheckpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    // everything the pixels and the tile layout depend on; samples are deterministic, see SampleAccumulator.offset()
+    public Properties manifest(Formula formula, double juliaRe, double juliaIm) {
+        Properties manifest = new Properties();
+        manifest.setProperty("width", Integer.toString(width));
+        manifest.setProperty("height", Integer.toString(height));
+        manifest.setProperty("viewport", viewPort.getMinX() + " " + viewPort.getMaxY() + " " + viewPort.getWidth() + " " + viewPort.getHeight());
+        manifest.setProperty("formula", formula.name());
+        if (formula == Formula.JULIA) {
+            manifest.setProperty("julia", juliaRe + " " + juliaIm);
+        }
+        manifest.setProperty("kernel", kernel.label());
+        manifest.setProperty("iterations", Integer.toString(maxIterations));
+        manifest.setProperty("samples", Integer.toString(superSamples));
+        manifest.setProperty("sequence", "centre+r2");
+        manifest.setProperty("band", Integer.toString(bandRows));
+        manifest.setProperty("tile", Integer.toString(tileColumns));
+        int tiles = 0;
+        for (int index = 0; index * bandRows < height; index++) {
+            tiles += tiles(index).size();
+        }
+        manifest.setProperty("tiles", Integer.toString(tiles));
+        return manifest;
+    }
+
+    public void render(BandWriter writer) throws Exception {
+        int bands = (height + bandRows - 1) / bandRows;
+        Deque<Band> window = new ArrayDeque<>();
+        int next = 0;
+        long startTime = System.currentTimeMillis();
+        long pixels = 0;
+
+        try {
+            while (next < bands && window.size() < inFlight) {
+                window.add(submit(next++));
+            }
+            while (!window.isEmpty()) {
+                Band band = window.poll();
+                int[] argb = band.await();
+                writer.writeBand(argb, band.rows);
+                pixels += (long) width * band.rows;
+                if (next < bands) {
+                    window.add(submit(next++));
+                }
+
+                double seconds = Math.max(1, System.currentTimeMillis() - startTime) / 1000.0;
+                System.out.printf("Band %d/%d  %5.1f%%  %.2f Mpixel/s  %.2f MB/s written\n", band.index + 1, bands,
+                        100.0 * pixels / ((long) width * height), pixels / seconds / 1e6, writer.bytesWritten() / seconds / 1e6);
+            }
+        } finally {
+            for (Band band : window) {
+                band.cancel();
+            }
+        }
+
+        long endTime = System.currentTimeMillis();
+        System.out.printf("Rendered %d x %d in %d ms (%.2f Mpixel/s), %d bytes written\n", width, height, endTime - startTime,
+                (double) width * height / Math.max(1, endTime - startTime) / 1e3, writer.bytesWritten());
+        if (checkpoint != null) {
+            System.out.printf("Checkpoint: %d tiles restored, %d saved so far\n", restored, checkpoint.saved());
+        }
+    }
+
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    // the tiles that render band `index`, its rows outside the mirrored range split into tileColumns wide pieces
+    private List<Rectangle> tiles(int index) {
+        int y = index * bandRows;
+        int bottom = Math.min(y + bandRows, height);
+        List<Rectangle> tiles = new ArrayList<>();
+        if (symmetry.mirroredRows() > 0) {
+            addTiles(tiles, y, Math.min(bottom, symmetry.mirrorStart));
+            addTiles(tiles, Math.max(y, symmetry.mirrorEnd + 1), bottom);
+        } else {
+            addTiles(tiles, y, bottom);
+        }
+        return tiles;
+    }
+
+    private void addTiles(List<Rectangle> tiles, int top, int bottom) {
+        if (top >= bottom) {
+            return;
+        }
+        for (int x = 0; x < width; x += tileColumns) {
+            tiles.add(new Rectangle(x, top, Math.min(tileColumns, width - x), bottom - top));
+        }
+    }
+
+    private Band submit(int index) throws Exception {
+        int y = index * bandRows;
+        int rows = Math.min(bandRows, height - y);
+        List<Rectangle> tiles = tiles(index);
+        List<RunTask> tasks = new ArrayList<>();
+        List<int[]> saved = new ArrayList<>();
+        for (Rectangle tile : tiles) {
+            int[] argb = checkpoint != null ? checkpoint.load(tile.x, tile.y, tile.width, tile.height) : null;
+            saved.add(argb);
+            if (argb != null) {
+                restored++;
+                continue;
+            }
+            RunTask task = new RunTask(maxIterations, superSamples, viewPort.getMinX(), viewPort.getMaxY(), viewPort.getWidth(), viewPort.getHeight(),
+                    tile.x, tile.y, tile.width, tile.height, width, height);
+            task.kernel = kernel;
+            tasks.add(task);
+        }
+        return jppfClient != null && !tasks.isEmpty() ? new GridBand(index, y, rows, tiles, saved, tasks)
+                : new LocalBand(index, y, rows, tiles, saved, tasks);
+    }
+
+    // hands a finished tile to the checkpoint writer
+    private void checkpoint(RunTask task) {
+        if (checkpoint != null && task.getResult() != null) {
+            checkpoint.save(task.tileX, task.tileY, task.tileWidth, task.tileHeight, task.getResult());
+        }
+    }
+
+    private abstract class Band {
+        final int index, y, rows;
+        final List<Rectangle> tiles;
+        // for each of `tiles`, its pixels if restored from the checkpoint and null if it is being rendered
+        final List<int[]> saved;
+
+        Band(int index, int y, int rows, List<Rectangle> tiles, List<int[]> saved) {
+            this.index = index;
+            this.y = y;
+            this.rows = rows;
+            this.tiles = tiles;
+            this.saved = saved;
+        }
+
+        // the rendered tiles, in the order of the nulls in `saved`
+        abstract List<int[]> results() throws Exception;
+
+        abstract void cancel();
+
+        // stitch the tiles of this band into one row-major band of `rows` x `width` and fill its mirrored rows; bands
+        // must be awaited in order, a source row is held from its own band until the band of its mirror image
+        int[] await() throws Exception {
+            List<int[]> rendered = results();
+            int[] argb = new int[width * rows];
+            int next = 0;
+            for (int i = 0; i < tiles.size(); i++) {
+                Rectangle tile = tiles.get(i);
+                int[] pixels = saved.get(i) != null ? saved.get(i) : rendered.get(next++);
+                for (int h = 0; h < tile.height; h++) {
+                    System.arraycopy(pixels, h * tile.width, argb, (tile.y - y + h) * width + tile.x, tile.width);
+                }
+            }
+            for (int h = y; h < y + rows; h++) {
+                if (symmetry.isMirrored(h)) {
+                    System.arraycopy(sourceRows.remove(symmetry.source(h)), 0, argb, (h - y) * width, width);
+                } else if (symmetry.isMirrored(symmetry.source(h))) {
+                    sourceRows.put(h, Arrays.copyOfRange(argb, (h - y) * width, (h - y + 1) * width));
+                }
+            }
+            return argb;
+        }
+    }
+
+    private class LocalBand extends Band {
+        private final List<Future<int[]>> futures = new ArrayList<>();
+
+        LocalBand(int index, int y, int rows, List<Rectangle> tiles, List<int[]> saved, List<RunTask> tasks) {
+            super(index, y, rows, tiles, saved);
+            for (final RunTask task : tasks) {
+                futures.add(executor.submit(new Callable<int[]>() {
+                    @Override
+                    public int[] call() {
+                        task.run();
+                        checkpoint(task);
+                        return task.getResult();
+                    }
+                }));
+            }
+        }
+
+        @Override
+        List<int[]> results() throws Exception {
+            List<int[]> tiles = new ArrayList<>();
+            for (Future<int[]> future : futures) {
+                tiles.add(future.get());
+            }
+            return tiles;
+        }
+
+        @Override
+        void cancel() {
+            for (Future<int[]> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private class GridBand extends Band {
+        private final JPPFJob job;
+
+        GridBand(int index, int y, int rows, List<Rectangle> tiles, List<int[]> saved, List<RunTask> tasks) throws Exception {
+            super(index, y, rows, tiles, saved);
+            job = new JPPFJob();
+            job.setName(String.format("Poster band %d", index));
+            for (RunTask task : tasks) {
+                job.add(task);
+            }
+            // saved as they come back, not when the whole band is in
+            job.addJobListener(new JobListenerAdapter() {
+                @Override
+                public void jobReturned(JobEvent event) {
+                    for (Task<?> returned : event.getJobTasks()) {
+                        if (returned.getThrowable() == null) {
+                            checkpoint((RunTask) returned);
+                        }
+                    }
+                }
+            });
+            TileCostBundler.attachCosts(job, TileCost.estimate(tasks));
+            jppfClient.submitAsync(job);
+        }
+
+        @Override
+        List<int[]> results() throws Exception {
+            List<int[]> tiles = new ArrayList<>();
+            for (Task<?> task : job.awaitResults()) {
+                if (task.getThrowable() != null) {
+                    throw new Exception("Tile failed on the grid", task.getThrowable());
+                }
+                tiles.add(((RunTask) task).getResult());
+            }
+            return tiles;
+        }
+
+        @Override
+        void cancel() {
+            job.cancel();
+        }
+    }
+
+    private static void usage() {
+        System.out.println("usage: PosterRenderer <width> <height> <file.png|file.tif> [-viewport x y w h] [-formula name] [-julia re im]");
+        System.out.println("                      [-iterations n|auto] [-samples n] [-band rows] [-tile columns] [-inflight bands] [-threads n] [-jppf]");
+        System.out.println("                      [-checkpoint directory]");
+        System.exit(1);
+    }
+
+    public static void main(String... args) throws Exception {
+        if (args.length < 3) {
+            usage();
+        }
+        int width = Integer.parseInt(args[0]);
+        int height = Integer.parseInt(args[1]);
+        File output = new File(args[2]);
+        Rectangle2D.Double viewPort = new Rectangle2D.Double(-2.5, -1, 3.5, 2);
+        int maxIterations = 1000, superSamples = 1, bandRows = 64, tileColumns = 1024, inFlight = 3;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean grid = false;
+        File checkpointDirectory = null;
+        Formula formula = Formula.MANDELBROT;
+        double juliaRe = -0.8, juliaIm = 0.156;
+
+        for (int i = 3; i < args.length; i++) {
+            switch (args[i]) {
+                case "-viewport":
+                    viewPort = new Rectangle2D.Double(Double.parseDouble(args[++i]), Double.parseDouble(args[++i]),
+                            Double.parseDouble(args[++i]), Double.parseDouble(args[++i]));
+                    break;
+                case "-formula":
+                    formula = Formula.valueOf(args[++i].toUpperCase());
+                    break;
+                case "-julia":
+                    juliaRe = Double.parseDouble(args[++i]);
+                    juliaIm = Double.parseDouble(args[++i]);
+                    break;
+                case "-iterations":
+                    maxIterations = args[++i].equals("auto") ? -1 : Integer.parseInt(args[i]);
+                    break;
+                case "-samples":
+                    superSamples = Integer.parseInt(args[++i]);
+                    break;
+                case "-band":
+                    bandRows = Integer.parseInt(args[++i]);
+                    break;
+                case "-tile":
+                    tileColumns = Integer.parseInt(args[++i]);
+                    break;
+                case "-inflight":
+                    inFlight = Integer.parseInt(args[++i]);
+                    break;
+                case "-threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "-jppf":
+                    grid = true;
+                    break;
+                case "-checkpoint":
+                    checkpointDirectory = new File(args[++i]);
+                    break;
+                default:
+                    usage();
+            }
+        }
+        FractalKernel kernel = formula.kernel(viewPort, width, height, juliaRe, juliaIm);
+        System.out.printf("Kernel: %s\n", kernel.label());
+        if (maxIterations == -1) {
+            maxIterations = IterationBudget.estimate(kernel, viewPort);
+            System.out.printf("Automatic iteration limit: %d\n", maxIterations);
+        }
+        if (width < 1 || height < 1 || bandRows < 1 || tileColumns < 1 || inFlight < 1 || superSamples < 1 || maxIterations < 1) {
+            usage();
+        }
+
+        String name = output.getName().toLowerCase();
+        BandWriter writer;
+        if (name.endsWith(".png")) {
+            // deflates on all cores alongside the render
+            writer = new ParallelPngWriter(output, width, height, threads);
+        } else if (name.endsWith(".tif") || name.endsWith(".tiff")) {
+            writer = new BigTiffStreamWriter(output, width, height, bandRows);
+        } else {
+            throw new IOException("Unsupported output format: " + output);
+        }
+
+        PosterRenderer renderer = new PosterRenderer(width, height, viewPort, kernel, maxIterations, superSamples, bandRows, tileColumns, inFlight);
+        RenderCheckpoint checkpoint = null;
+        JPPFClient jppfClient = null;
+        try {
+            if (checkpointDirectory != null) {
+                checkpoint = RenderCheckpoint.open(checkpointDirectory, renderer.manifest(formula, juliaRe, juliaIm));
+                renderer.useCheckpoint(checkpoint);
+            }
+            if (grid) {
+                jppfClient = new JPPFClient();
+                renderer.useGrid(jppfClient);
+            } else {
+                renderer.useLocalThreads(threads);
+            }
+            renderer.render(writer);
+            writer.close();
+            if (writer instanceof ParallelPngWriter) {
+                ParallelPngWriter png = (ParallelPngWriter) writer;
+                System.out.printf("PNG encoding took %d ms of the caller's time, %.1f MB/s\n", png.encodeNanos() / 1000000, png.megabytesPerSecond());
+            }
+        } finally {
+            IOUtils.closeQuietly(writer);
+            renderer.shutdown();
+            if (checkpoint != null) {
+                checkpoint.close();
+            }
+            if (jppfClient != null) {
+                jppfClient.close();
+            }
+        }
+    }
+}
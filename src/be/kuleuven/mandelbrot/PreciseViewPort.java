@@ -0,0 +1,43 @@
+package be.kuleuven.mandelbrot;
+
+import java.awt.geom.Rectangle2D;
+
+// A viewport whose left and top edges keep double-double precision. The true edges are getMinX() + minXLo and
+// getMaxY() + maxYLo, which lets the rubber band zoom keep going after the origin no longer fits in a double.
+public class PreciseViewPort extends Rectangle2D.Double {
+    public final double minXLo, maxYLo;
+
+    public PreciseViewPort(double minX, double minXLo, double maxY, double maxYLo, double width, double height) {
+        super(minX, maxY - height, width, height);
+        this.minXLo = minXLo;
+        // getMaxY() is recomputed as y + height, keep whatever that rounding lost
+        this.maxYLo = (maxY - getMaxY()) + maxYLo;
+    }
+
+    public static double minXLo(Rectangle2D r) {
+        return r instanceof PreciseViewPort ? ((PreciseViewPort) r).minXLo : 0;
+    }
+
+    public static double maxYLo(Rectangle2D r) {
+        return r instanceof PreciseViewPort ? ((PreciseViewPort) r).maxYLo : 0;
+    }
+
+    // the part of r between the normalized coordinates (nx,ny) and (nx2,ny2), measured from the top left corner
+    public static PreciseViewPort select(Rectangle2D r, double nx, double ny, double nx2, double ny2) {
+        double dx = Math.min(nx, nx2) * r.getWidth();
+        double dy = -Math.min(ny, ny2) * r.getHeight();
+
+        double x = r.getMinX() + dx;
+        double xLo = PrecisionTier.twoSumError(r.getMinX(), dx, x) + minXLo(r);
+        double xHi = x + xLo;
+        xLo -= xHi - x;
+
+        double y = r.getMaxY() + dy;
+        double yLo = PrecisionTier.twoSumError(r.getMaxY(), dy, y) + maxYLo(r);
+        double yHi = y + yLo;
+        yLo -= yHi - y;
+
+        return new PreciseViewPort(xHi, xLo, yHi, yLo, Math.abs(nx2 - nx) * r.getWidth(), Math.abs(ny2 - ny) * r.getHeight());
+    }
+
+}
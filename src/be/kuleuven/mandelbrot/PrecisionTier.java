@@ -0,0 +1,199 @@
+package be.kuleuven.mandelbrot;
+
+// Mandelbrot kernels in the cheapest arithmetic that still resolves the pixel spacing. Every tier is its own
+// specialized loop; c is passed as a double-double (hi + lo) and each tier uses as much of it as it can represent.
+public enum PrecisionTier implements FractalKernel {
+
+    FLOAT("Mandelbrot (float)") {
+        @Override
+        public int iterate(double cxHi, double cxLo, double cyHi, double cyLo, int maxIterations) {
+            float x0 = (float) cxHi, y0 = (float) cyHi;
+            float x = 0, y = 0;
+            int iteration = 0;
+            while (x * x + y * y < 4 && iteration < maxIterations) {
+                float xtemp = x * x - y * y + x0;
+                y = 2 * x * y + y0;
+                x = xtemp;
+                iteration++;
+            }
+            return iteration;
+        }
+
+        @Override
+        double ulp(double magnitude) {
+            return Math.ulp((float) magnitude);
+        }
+    },
+
+    DOUBLE("Mandelbrot (double)") {
+        @Override
+        public int iterate(double cxHi, double cxLo, double cyHi, double cyLo, int maxIterations) {
+            double x0 = cxHi + cxLo, y0 = cyHi + cyLo;
+            double x = 0, y = 0;
+            int iteration = 0;
+            while (x * x + y * y < 4 && iteration < maxIterations) {
+                double xtemp = x * x - y * y + x0;
+                y = 2 * x * y + y0;
+                x = xtemp;
+                iteration++;
+            }
+            return iteration;
+        }
+
+        @Override
+        double ulp(double magnitude) {
+            return Math.ulp(magnitude);
+        }
+    },
+
+    // signed 64 bit fixed point with FRACTION_BITS fractional bits, a few bits finer than double for |z| < 16
+    FIXED_POINT("Mandelbrot (fixed-point long)") {
+        @Override
+        public int iterate(double cxHi, double cxLo, double cyHi, double cyLo, int maxIterations) {
+            long x0 = toFixed(cxHi, cxLo), y0 = toFixed(cyHi, cyLo);
+            long x = 0, y = 0;
+            int iteration = 0;
+            while (iteration < maxIterations) {
+                // |x| or |y| >= 2 already means escaped, and keeps the squares below 4 so they cannot overflow
+                if (x >= TWO || x <= -TWO || y >= TWO || y <= -TWO) {
+                    break;
+                }
+                long xx = multiply(x, x), yy = multiply(y, y);
+                if (xx + yy >= FOUR) {
+                    break;
+                }
+                long xy = multiply(x, y);
+                x = xx - yy + x0;
+                y = (xy << 1) + y0;
+                iteration++;
+            }
+            return iteration;
+        }
+
+        @Override
+        double ulp(double magnitude) {
+            return magnitude < 4 ? Math.scalb(1.0, -FRACTION_BITS) : java.lang.Double.POSITIVE_INFINITY;
+        }
+    },
+
+    DOUBLE_DOUBLE("Mandelbrot (double-double)") {
+        @Override
+        public int iterate(double cxHi, double cxLo, double cyHi, double cyLo, int maxIterations) {
+            double xh = 0, xl = 0, yh = 0, yl = 0;
+            int iteration = 0;
+            while (xh * xh + yh * yh < 4 && iteration < maxIterations) {
+                double t, ah, al, bh, bl;
+
+                // x^2 = two-product of the high parts plus the cross term
+                t = SPLIT * xh;
+                ah = t - (t - xh);
+                al = xh - ah;
+                double xxh = xh * xh;
+                double xxl = ((ah * ah - xxh) + 2 * ah * al + al * al) + 2 * xh * xl;
+
+                t = SPLIT * yh;
+                bh = t - (t - yh);
+                bl = yh - bh;
+                double yyh = yh * yh;
+                double yyl = ((bh * bh - yyh) + 2 * bh * bl + bl * bl) + 2 * yh * yl;
+
+                double xyh = xh * yh;
+                double xyl = ((ah * bh - xyh) + ah * bl + al * bh + al * bl) + (xh * yl + xl * yh);
+
+                // x' = x^2 - y^2 + cx
+                double s = xxh - yyh;
+                double e = twoSumError(xxh, -yyh, s) + (xxl - yyl);
+                double s2 = s + cxHi;
+                e += twoSumError(s, cxHi, s2) + cxLo;
+                double nxh = s2 + e;
+                double nxl = e - (nxh - s2);
+
+                // y' = 2xy + cy
+                s = 2 * xyh + cyHi;
+                e = twoSumError(2 * xyh, cyHi, s) + (2 * xyl + cyLo);
+                yh = s + e;
+                yl = e - (yh - s);
+
+                xh = nxh;
+                xl = nxl;
+                iteration++;
+            }
+            return iteration;
+        }
+
+        @Override
+        double ulp(double magnitude) {
+            return Math.scalb(Math.ulp(magnitude), -53);
+        }
+    };
+
+    // a tier is used while a pixel spans at least this many of its ulps, headroom for error growth along the orbit
+    private static final double SAFETY = 1024;
+    private static final double SPLIT = 134217729.0; // 2^27 + 1, Dekker split
+    private static final int FRACTION_BITS = 59;
+    private static final long TWO = 2L << FRACTION_BITS, FOUR = 4L << FRACTION_BITS;
+
+    private final String label;
+
+    PrecisionTier(String label) {
+        this.label = label;
+    }
+
+    // spacing of representable values around the given magnitude
+    abstract double ulp(double magnitude);
+
+    @Override
+    public boolean conjugateSymmetric() {
+        return true;
+    }
+
+    @Override
+    public String label() {
+        return label;
+    }
+
+    // cheapest tier that resolves pixels `pixelSpacing` apart anywhere within `magnitude` of the origin
+    public static PrecisionTier select(double pixelSpacing, double magnitude) {
+        for (PrecisionTier tier : values()) {
+            if (pixelSpacing >= SAFETY * tier.ulp(magnitude)) {
+                return tier;
+            }
+        }
+        return DOUBLE_DOUBLE;
+    }
+
+    public static PrecisionTier select(double minX, double maxY, double viewWidth, double viewHeight, int width, int height) {
+        return select(Math.min(viewWidth / width, viewHeight / height), magnitude(minX, maxY, viewWidth, viewHeight));
+    }
+
+    // pixel spacing is below what even the last tier can resolve
+    public static boolean exhausted(double minX, double maxY, double viewWidth, double viewHeight, int width, int height) {
+        return Math.min(viewWidth / width, viewHeight / height) < SAFETY * DOUBLE_DOUBLE.ulp(magnitude(minX, maxY, viewWidth, viewHeight));
+    }
+
+    private static double magnitude(double minX, double maxY, double viewWidth, double viewHeight) {
+        double magnitude = Math.max(Math.max(Math.abs(minX), Math.abs(minX + viewWidth)), Math.max(Math.abs(maxY), Math.abs(maxY - viewHeight)));
+        return Math.max(magnitude, 2);
+    }
+
+    static double twoSumError(double a, double b, double s) {
+        double bb = s - a;
+        return (a - (s - bb)) + (b - bb);
+    }
+
+    static long toFixed(double hi, double lo) {
+        return (long) Math.scalb(hi, FRACTION_BITS) + (long) Math.scalb(lo, FRACTION_BITS);
+    }
+
+    // (a * b) >> FRACTION_BITS using the full 128 bit product
+    static long multiply(long a, long b) {
+        long a1 = a >> 32, a2 = a & 0xFFFFFFFFL;
+        long b1 = b >> 32, b2 = b & 0xFFFFFFFFL;
+        long z2 = a2 * b2;
+        long t = a1 * b2 + (z2 >>> 32);
+        long z1 = (t & 0xFFFFFFFFL) + a2 * b1;
+        long high = a1 * b1 + (t >> 32) + (z1 >> 32);
+        long low = a * b;
+        return (high << (64 - FRACTION_BITS)) | (low >>> FRACTION_BITS);
+    }
+}
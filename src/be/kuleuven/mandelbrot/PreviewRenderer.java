@@ -0,0 +1,106 @@
+package be.kuleuven.mandelbrot;
+
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+// Renders interactive frames within a time budget. Resolution and sample count are picked from the measured cost
+// per sample of previous frames, so a frame comes back in roughly `budgetMillis` whatever the viewport looks like.
+public class PreviewRenderer {
+    private static final int[] SCALES = {1, 2, 3, 4, 6, 8, 12, 16};
+
+    private final int width, height;
+    private final long budgetNanos;
+    private final ExecutorService executor;
+    private final int threads;
+
+    // running estimate of the cost of one sample, in nanoseconds of wall time
+    private double nanosPerSample = 200;
+
+    public static class Frame {
+        public BufferedImage image;
+        public int scale, samples;
+        public long nanos;
+    }
+
+    public PreviewRenderer(int width, int height, long budgetMillis) {
+        this(width, height, budgetMillis, Runtime.getRuntime().availableProcessors(), Thread.NORM_PRIORITY);
+    }
+
+    // a renderer with its own pool of `threads` daemon threads at the given priority
+    public PreviewRenderer(int width, int height, long budgetMillis, int threads, final int priority) {
+        this.width = width;
+        this.height = height;
+        this.budgetNanos = budgetMillis * 1000000L;
+        this.threads = threads;
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = defaultFactory.newThread(r);
+                thread.setDaemon(true);
+                thread.setPriority(priority);
+                return thread;
+            }
+        });
+    }
+
+    public Frame render(Rectangle2D.Double viewPort, Formula formula, double cRe, double cIm, int maxIterations, int maxSamples) throws Exception {
+        int scale = SCALES[SCALES.length - 1];
+        for (int s : SCALES) {
+            if (estimate(s, 1) <= budgetNanos) {
+                scale = s;
+                break;
+            }
+        }
+        int samples = 1;
+        while (scale == 1 && samples < maxSamples && estimate(1, samples + 1) <= budgetNanos) {
+            samples++;
+        }
+
+        int w = (width + scale - 1) / scale, h = (height + scale - 1) / scale;
+        long startTime = System.nanoTime();
+        FractalKernel kernel = formula.kernel(viewPort, w, h, cRe, cIm);
+        List<RunTask> tasks = new ArrayList<>();
+        List<Future<?>> futures = new ArrayList<>();
+        int rows = Math.max(1, h / (4 * threads));
+        for (int y = 0; y < h; y += rows) {
+            RunTask task = new RunTask(maxIterations, samples, viewPort.getMinX(), viewPort.getMaxY(), viewPort.getWidth(), viewPort.getHeight(),
+                    0, y, w, Math.min(rows, h - y), w, h);
+            task.getMinXLo = PreciseViewPort.minXLo(viewPort);
+            task.getMaxYLo = PreciseViewPort.maxYLo(viewPort);
+            task.kernel = kernel;
+            tasks.add(task);
+            futures.add(executor.submit(task));
+        }
+
+        Frame frame = new Frame();
+        frame.image = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        for (int i = 0; i < tasks.size(); i++) {
+            futures.get(i).get();
+            RunTask task = tasks.get(i);
+            frame.image.setRGB(0, task.tileY, w, task.tileHeight, task.getResult(), 0, w);
+        }
+        frame.scale = scale;
+        frame.samples = samples;
+        frame.nanos = System.nanoTime() - startTime;
+
+        double measured = (double) frame.nanos / ((long) w * h * samples);
+        nanosPerSample = 0.5 * nanosPerSample + 0.5 * measured;
+        return frame;
+    }
+
+    private double estimate(int scale, int samples) {
+        return nanosPerSample * ((width + scale - 1) / scale) * ((height + scale - 1) / scale) * samples;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,158 @@
+package be.kuleuven.mandelbrot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+// A directory that lets a long render survive the death of its client. manifest.properties holds everything that decides
+// the pixels and the tile layout; every finished tile is a file of its own, deflated ARGB behind its size. Tiles are handed
+// to save() as they come back and written by one background thread, so the result path only pays for a queue insert.
+// Files are written under a temporary name and renamed when complete, a crash never leaves a tile that loads half.
+// A restarted render opens the same directory with the same manifest and load()s whatever is there instead of submitting it.
+public class RenderCheckpoint {
+    private static final String MANIFEST = "manifest.properties";
+
+    private final File directory;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "Checkpoint writer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private final AtomicInteger saved = new AtomicInteger(), failed = new AtomicInteger();
+
+    private RenderCheckpoint(File directory) {
+        this.directory = directory;
+    }
+
+    // starts a checkpoint in `directory`, or resumes the one there if it was made for the same manifest
+    public static RenderCheckpoint open(File directory, Properties manifest) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create checkpoint directory " + directory);
+        }
+        File file = new File(directory, MANIFEST);
+        if (file.exists()) {
+            Properties existing = new Properties();
+            InputStream in = new FileInputStream(file);
+            try {
+                existing.load(in);
+            } finally {
+                in.close();
+            }
+            if (!existing.equals(manifest)) {
+                throw new IOException(String.format("Checkpoint %s belongs to a different render, use another directory", directory));
+            }
+        } else {
+            File partial = new File(directory, MANIFEST + ".part");
+            OutputStream out = new FileOutputStream(partial);
+            try {
+                manifest.store(out, "render checkpoint");
+            } finally {
+                out.close();
+            }
+            rename(partial, file);
+        }
+        return new RenderCheckpoint(directory);
+    }
+
+    private File tileFile(int x, int y) {
+        return new File(directory, String.format("tile-%d-%d.bin", x, y));
+    }
+
+    // the tile at (x, y) if an earlier run finished it, null otherwise
+    public int[] load(int x, int y, int tileWidth, int tileHeight) {
+        File file = tileFile(x, y);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(new FileInputStream(file)), 1 << 16));
+            try {
+                if (in.readInt() != tileWidth || in.readInt() != tileHeight) {
+                    return null;
+                }
+                int[] argb = new int[tileWidth * tileHeight];
+                for (int i = 0; i < argb.length; i++) {
+                    argb[i] = in.readInt();
+                }
+                return argb;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // unreadable, the tile is simply rendered again
+            System.out.printf("Ignoring checkpoint tile %s: %s\n", file.getName(), e);
+            return null;
+        }
+    }
+
+    // queues the tile for writing and returns at once, `argb` must not change afterwards
+    public void save(final int x, final int y, final int tileWidth, final int tileHeight, final int[] argb) {
+        writer.submit(new Runnable() {
+            @Override
+            public void run() {
+                File partial = new File(directory, String.format("tile-%d-%d.part", x, y));
+                try {
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                            new DeflaterOutputStream(new FileOutputStream(partial), new Deflater(Deflater.BEST_SPEED)), 1 << 16));
+                    try {
+                        out.writeInt(tileWidth);
+                        out.writeInt(tileHeight);
+                        for (int pixel : argb) {
+                            out.writeInt(pixel);
+                        }
+                    } finally {
+                        out.close();
+                    }
+                    rename(partial, tileFile(x, y));
+                    saved.incrementAndGet();
+                } catch (IOException e) {
+                    // a missing tile only costs its render on resume, the render itself goes on
+                    failed.incrementAndGet();
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    public int saved() {
+        return saved.get();
+    }
+
+    public int failed() {
+        return failed.get();
+    }
+
+    // waits for the tiles still queued
+    public void close() throws InterruptedException {
+        writer.shutdown();
+        writer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    private static void rename(File from, File to) throws IOException {
+        if (!from.renameTo(to)) {
+            to.delete();
+            if (!from.renameTo(to)) {
+                throw new IOException("Cannot write " + to);
+            }
+        }
+    }
+}
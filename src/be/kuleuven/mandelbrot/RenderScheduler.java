@@ -0,0 +1,112 @@
+package be.kuleuven.mandelbrot;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Latest-wins scheduling of foreground renders. Every request gets the next generation number and at most one render runs
+// at a time; a request still waiting when a newer one comes in is dropped, so the queue never holds more than one. A
+// running render asks isCurrent() between tiles and stops once it has been superseded, and writes its results through
+// publish(), which only lets them through while the generation is still current. supersede() invalidates whatever is
+// running without starting anything, for when the frame is replaced by other means. A render that throws is told so
+// through failed(), on the dispatcher thread, so it can put its controls back.
+// isCurrent() is a plain read and never waits. publish() holds the scheduler's lock for its write, and a new generation
+// is only handed out under that lock, so writes should be kept to the raster and the heavy work done before publishing.
+public class RenderScheduler {
+
+    public interface Render {
+        void run(long generation) throws Exception;
+
+        void failed(long generation, Exception e);
+    }
+
+    private static class Request {
+        final long generation;
+        final Render render;
+
+        Request(long generation, Render render) {
+            this.generation = generation;
+            this.render = render;
+        }
+    }
+
+    // written under the lock, read without it
+    private volatile long generation;
+    private final AtomicReference<Request> pending = new AtomicReference<>();
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final ExecutorService dispatcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "Foreground render");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                Request request;
+                while ((request = pending.getAndSet(null)) != null) {
+                    if (!isCurrent(request.generation)) {
+                        continue;
+                    }
+                    try {
+                        request.render.run(request.generation);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                        request.render.failed(request.generation, e);
+                    }
+                }
+            } finally {
+                running.set(false);
+                // a request may have arrived between the last poll and clearing the flag
+                if (pending.get() != null && !dispatcher.isShutdown() && running.compareAndSet(false, true)) {
+                    try {
+                        dispatcher.submit(this);
+                    } catch (RejectedExecutionException e) {
+                        // shut down in the meantime, whatever was pending is dropped
+                    }
+                }
+            }
+        }
+    };
+
+    public long submit(Render render) {
+        long next;
+        synchronized (this) {
+            next = ++generation;
+        }
+        pending.set(new Request(next, render));
+        if (running.compareAndSet(false, true)) {
+            dispatcher.submit(drain);
+        }
+        return next;
+    }
+
+    public synchronized long supersede() {
+        return ++generation;
+    }
+
+    public boolean isCurrent(long generation) {
+        return generation == this.generation;
+    }
+
+    // runs `write` only if `generation` is current, no newer request can start in between
+    public synchronized boolean publish(long generation, Runnable write) {
+        if (generation != this.generation) {
+            return false;
+        }
+        write.run();
+        return true;
+    }
+
+    public void shutdown() {
+        supersede();
+        dispatcher.shutdownNow();
+    }
+}
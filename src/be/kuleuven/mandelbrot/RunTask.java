@@ -1,84 +1,136 @@
 package be.kuleuven.mandelbrot;
 
-import com.sun.prism.image.ViewPort;
 import org.jppf.node.protocol.AbstractTask;
-import org.jppf.node.protocol.Task;
 
 import java.awt.*;
-import java.util.Random;
 
-public class RunTask extends AbstractTask<float[][]> {
-    public int maxIterations, superSamples, w, width, height;
+public class RunTask extends AbstractTask<int[]> {
+    public int maxIterations, superSamples, width, height;
+    public int tileX, tileY, tileWidth, tileHeight;
     public double getMinX, getMaxY, getWidth, getHeight;
-    public Random rnd;
+    // low-order parts of getMinX and getMaxY for viewports deeper than a double can address
+    public double getMinXLo, getMaxYLo;
+    public FractalKernel kernel;
+    // wall time spent in run(), measured wherever the task executed
+    public long nanos;
+    // with recordCost set, run() also leaves the iterations of every pixel, summed over its samples, in costIterations
+    public boolean recordCost;
+    public int[] costIterations;
+    // samples below firstSample were drawn by an earlier pass, run() only draws the rest; with keepSums set it also leaves
+    // the r, g, b sums of the samples it drew in sampleSums, for a SampleAccumulator to add up
+    public int firstSample;
+    public boolean keepSums;
+    public float[] sampleSums;
 
+    // a single column of the image, as used by the viewer
     public RunTask(int maxIterations, int superSamples, double getMinX, double getMaxY, double getWidth, double getHeight, int w, int width, int height) {
+        this(maxIterations, superSamples, getMinX, getMaxY, getWidth, getHeight, w, 0, 1, height, width, height);
+    }
+
+    // an arbitrary rectangle (tileX,tileY,tileWidth,tileHeight) of a width x height image, result is row-major ARGB
+    public RunTask(int maxIterations, int superSamples, double getMinX, double getMaxY, double getWidth, double getHeight,
+                   int tileX, int tileY, int tileWidth, int tileHeight, int width, int height) {
         this.maxIterations = maxIterations;
         this.superSamples = superSamples;
         this.getMinX = getMinX;
         this.getMaxY = getMaxY;
         this.getWidth = getWidth;
         this.getHeight = getHeight;
-        this.w = w;
+        this.tileX = tileX;
+        this.tileY = tileY;
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
         this.height = height;
         this.width = width;
-        this.rnd = new Random();
+        this.kernel = PrecisionTier.select(getMinX, getMaxY, getWidth, getHeight, width, height);
+
+    }
 
+    // an unexecuted copy of the same tile, to run it somewhere else
+    public RunTask(RunTask other) {
+        this(other.maxIterations, other.superSamples, other.getMinX, other.getMaxY, other.getWidth, other.getHeight,
+                other.tileX, other.tileY, other.tileWidth, other.tileHeight, other.width, other.height);
+        this.getMinXLo = other.getMinXLo;
+        this.getMaxYLo = other.getMaxYLo;
+        this.kernel = other.kernel;
+        this.recordCost = other.recordCost;
+        this.firstSample = other.firstSample;
+        this.keepSums = other.keepSums;
     }
 
     @Override
     public void run() {
         super.run();
+        long startTime = System.nanoTime();
         float r, g, b;
-        float[][] arrh = new float[height][3];
-        for (int h = 0; h < height; h++) {
-            r = 0;
-            g = 0;
-            b = 0;
-            for (int sample = 0; sample < superSamples; sample++) {
-
-                // escape time algorithm
-                double x0, y0;
-                if (superSamples == 1) {
-                    x0 = getMinX + (w + .5) / width * getWidth;
-                    y0 = getMaxY - (h + 0.5) / height * getHeight;
-                } else {
-                    x0 = getMinX + (w + rnd.nextDouble()) / width * getWidth;
-                    y0 = getMaxY - (h + rnd.nextDouble()) / height * getHeight;
+        int[] rgb = new int[tileWidth * tileHeight];
+        int[] counts = recordCost ? new int[tileWidth * tileHeight] : null;
+        float[] sums = keepSums ? new float[3 * tileWidth * tileHeight] : null;
+        int drawn = superSamples - firstSample;
+        ConjugateSymmetry symmetry = ConjugateSymmetry.of(kernel, getMaxY, getHeight, height);
+        for (int h = tileY; h < tileY + tileHeight; h++) {
+            if (symmetry.isMirrored(h) && symmetry.source(h) >= tileY) {
+                // conjugate row already computed in this tile
+                System.arraycopy(rgb, (symmetry.source(h) - tileY) * tileWidth, rgb, (h - tileY) * tileWidth, tileWidth);
+                if (counts != null) {
+                    System.arraycopy(counts, (symmetry.source(h) - tileY) * tileWidth, counts, (h - tileY) * tileWidth, tileWidth);
                 }
-                double x = 0;
-                double y = 0;
-
-                long iteration = 0;
-                long max_iteration = maxIterations;
-
-                while (x * x + y * y < 4 && iteration < max_iteration) {
-                    double xtemp = x * x - y * y + x0;
-                    y = 2 * x * y + y0;
-                    x = xtemp;
-                    iteration++;
+                if (sums != null) {
+                    System.arraycopy(sums, 3 * (symmetry.source(h) - tileY) * tileWidth, sums, 3 * (h - tileY) * tileWidth, 3 * tileWidth);
                 }
-                // determine the color
-                if (iteration < max_iteration) {
+                continue;
+            }
+            // a mirrored row whose source lies outside the tile takes the conjugates of the source row's samples, so it
+            // holds what a copy of that row would
+            boolean mirrored = symmetry.isMirrored(h);
+            int jitterRow = mirrored ? symmetry.source(h) : h;
+            for (int w = tileX; w < tileX + tileWidth; w++) {
+                r = 0;
+                g = 0;
+                b = 0;
+                for (int sample = firstSample; sample < superSamples; sample++) {
 
-                    double quotient = (double) iteration / (double) max_iteration;
-                    float c = (float) Math.pow(quotient, 1.0 / 3);
-                    if (quotient > 0.5) {
-                        // Close to the mandelbrot set the color changes from green to white
-                        r += c;
-                        g += 1.f;
-                        b += c;
-                    } else {
-                        // Far away it changes from black to green
-                        g += c;
+                    // escape time algorithm, c as a double-double offset from the viewport corner
+                    double dx = (w + SampleAccumulator.offset(w, jitterRow, sample, 0)) / width * getWidth;
+                    double offsetY = SampleAccumulator.offset(w, jitterRow, sample, 1);
+                    double dy = -(h + (mirrored ? 1 - offsetY : offsetY)) / height * getHeight;
+                    double x0 = getMinX + dx, y0 = getMaxY + dy;
+                    long iteration = kernel.iterate(x0, PrecisionTier.twoSumError(getMinX, dx, x0) + getMinXLo,
+                            y0, PrecisionTier.twoSumError(getMaxY, dy, y0) + getMaxYLo, maxIterations);
+                    long max_iteration = maxIterations;
+                    if (counts != null) {
+                        counts[(h - tileY) * tileWidth + (w - tileX)] += iteration;
                     }
 
+                    // determine the color
+                    if (iteration < max_iteration) {
+
+                        double quotient = (double) iteration / (double) max_iteration;
+                        float c = (float) Math.pow(quotient, 1.0 / 3);
+                        if (quotient > 0.5) {
+                            // Close to the mandelbrot set the color changes from green to white
+                            r += c;
+                            g += 1.f;
+                            b += c;
+                        } else {
+                            // Far away it changes from black to green
+                            g += c;
+                        }
+
+                    }
+                }
+                int pixel = (h - tileY) * tileWidth + (w - tileX);
+                if (sums != null) {
+                    sums[3 * pixel] = r;
+                    sums[3 * pixel + 1] = g;
+                    sums[3 * pixel + 2] = b;
                 }
+                rgb[pixel] = new Color(r / drawn, g / drawn, b / drawn).getRGB();
             }
-            arrh[h][0] = (r / superSamples);
-            arrh[h][1] = (g / superSamples);
-            arrh[h][2] = (b / superSamples);
         }
-        setResult(arrh);
+        nanos = System.nanoTime() - startTime;
+        costIterations = counts;
+        sampleSums = sums;
+        setResult(rgb);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,106 @@
+package be.kuleuven.mandelbrot;
+
+import java.awt.*;
+import java.awt.geom.Rectangle2D;
+
+// Running colour sums and sample counts of every pixel of one frame, so raising the number of samples only pays for the
+// samples that are new. Sample k of a pixel always lands on the same spot, see offset(), which makes the samples of
+// separate passes, and of tiles rendered on different machines, add up to exactly what one pass would have drawn.
+// A pass asks samples() where a tile stands, renders the samples from there up to its target and add()s their sums;
+// argb() is the average of everything the pixels hold. Lowering the target never throws samples away.
+public class SampleAccumulator {
+    // the R2 sequence, a 2D low-discrepancy sequence from the plastic number
+    private static final double R2_X = 0.7548776662466927, R2_Y = 0.5698402909980532;
+
+    public final int width, height;
+    public final Rectangle2D.Double viewPort;
+    public final FractalKernel kernel;
+    public final int maxIterations;
+    // r, g, b per pixel, row-major
+    private final float[] sums;
+    private final int[] samples;
+
+    public SampleAccumulator(int width, int height, Rectangle2D.Double viewPort, FractalKernel kernel, int maxIterations) {
+        this.width = width;
+        this.height = height;
+        this.viewPort = viewPort;
+        this.kernel = kernel;
+        this.maxIterations = maxIterations;
+        this.sums = new float[3 * width * height];
+        this.samples = new int[width * height];
+    }
+
+    // true if samples of this frame may be added to the ones held here
+    public boolean matches(int width, int height, Rectangle2D.Double viewPort, FractalKernel kernel, int maxIterations) {
+        return width == this.width && height == this.height && maxIterations == this.maxIterations
+                && viewPort.equals(this.viewPort)
+                && PreciseViewPort.minXLo(viewPort) == PreciseViewPort.minXLo(this.viewPort)
+                && PreciseViewPort.maxYLo(viewPort) == PreciseViewPort.maxYLo(this.viewPort)
+                && kernel.equals(this.kernel);
+    }
+
+    // sub-pixel position of sample `sample` of pixel (w, h), axis 0 for x and 1 for y. Sample 0 is the centre, the rest
+    // follow the R2 sequence shifted by a hash of the pixel, so neighbours do not share one pattern
+    public static double offset(int w, int h, int sample, int axis) {
+        if (sample == 0) {
+            return .5;
+        }
+        long z = w * 0x9E3779B97F4A7C15L + h * 0xC2B2AE3D27D4EB4FL + axis;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z ^= z >>> 31;
+        double position = (z >>> 11) * 0x1.0p-53 + sample * (axis == 0 ? R2_X : R2_Y);
+        return position - Math.floor(position);
+    }
+
+    // the fewest samples any pixel of the tile holds, where a pass over the tile starts
+    public synchronized int samples(Rectangle tile) {
+        int fewest = Integer.MAX_VALUE;
+        for (int h = tile.y; h < tile.y + tile.height; h++) {
+            for (int w = tile.x; w < tile.x + tile.width; w++) {
+                fewest = Math.min(fewest, samples[h * width + w]);
+            }
+        }
+        return fewest;
+    }
+
+    // sums of samples [firstSample, lastSample) of the tile, r, g, b per pixel, row-major; a pixel that holds something other
+    // than firstSample samples is left alone, it already has these or is missing earlier ones
+    public synchronized void add(Rectangle tile, int firstSample, int lastSample, float[] tileSums) {
+        for (int h = 0; h < tile.height; h++) {
+            for (int w = 0; w < tile.width; w++) {
+                int pixel = (tile.y + h) * width + tile.x + w;
+                if (samples[pixel] != firstSample) {
+                    continue;
+                }
+                int source = 3 * (h * tile.width + w);
+                sums[3 * pixel] += tileSums[source];
+                sums[3 * pixel + 1] += tileSums[source + 1];
+                sums[3 * pixel + 2] += tileSums[source + 2];
+                samples[pixel] = lastSample;
+            }
+        }
+    }
+
+    // rows of `mirror` hold the same samples as their conjugate rows in `tile`
+    public synchronized void mirror(Rectangle tile, Rectangle mirror, ConjugateSymmetry symmetry) {
+        for (int h = mirror.y; h < mirror.y + mirror.height; h++) {
+            System.arraycopy(sums, 3 * (symmetry.source(h) * width + tile.x), sums, 3 * (h * width + tile.x), 3 * tile.width);
+            System.arraycopy(samples, symmetry.source(h) * width + tile.x, samples, h * width + tile.x, tile.width);
+        }
+    }
+
+    // the mean colour of every pixel of the tile, row-major ARGB
+    public synchronized int[] argb(Rectangle tile) {
+        int[] argb = new int[tile.width * tile.height];
+        for (int h = 0; h < tile.height; h++) {
+            for (int w = 0; w < tile.width; w++) {
+                int pixel = (tile.y + h) * width + tile.x + w;
+                float n = Math.max(1, samples[pixel]);
+                argb[h * tile.width + w] = new Color(Math.min(1, sums[3 * pixel] / n), Math.min(1, sums[3 * pixel + 1] / n),
+                        Math.min(1, sums[3 * pixel + 2] / n)).getRGB();
+            }
+        }
+        return argb;
+    }
+}
@@ -0,0 +1,274 @@
+package be.kuleuven.mandelbrot;
+
+import org.jppf.client.JPPFClient;
+import org.jppf.client.JPPFJob;
+import org.jppf.client.event.JobEvent;
+import org.jppf.client.event.JobListenerAdapter;
+import org.jppf.node.protocol.Task;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Runs a frame's RunTasks on the grid and re-issues stragglers. Every task's dispatch and return time is tracked; once
+// QUORUM of the tasks are back, a task that has been out longer than SLOW_FACTOR times the QUORUM quantile of the
+// finished tasks' durations is copied into a backup job, and onto local threads when given. Idle nodes pick up the backup
+// job while the slow node is still busy with its bundle. The first copy of a tile to return wins, a copy that fails only
+// fails the frame when no other copy of its tile can still bring a result; once every tile has a result the jobs still
+// holding losers are cancelled.
+public class SpeculativeJob {
+    private static final double QUORUM = 0.75, SLOW_FACTOR = 1.5;
+    // never speculate on frames this fast, a backup would only add load
+    private static final long MIN_DELAY_NANOS = 200000000L;
+    private static final int BACKUP_PRIORITY = 10;
+
+    private final JPPFClient jppfClient;
+    private final ExecutorService localExecutor;
+    private final String name;
+    private final List<RunTask> tasks;
+
+    private final AtomicReferenceArray<RunTask> results;
+    // winning results not yet taken by poll(), for incremental painting
+    private final ConcurrentLinkedQueue<RunTask> returned = new ConcurrentLinkedQueue<>();
+    // System.nanoTime() when each task left the client and when its first result came back, 0 if not yet
+    private final long[] dispatchNanos, returnNanos;
+    private final boolean[] reissued;
+    // per task, whether the original failed and how many of its copies are still out
+    private final boolean[] primaryFailed;
+    private final int[] copiesOut;
+    private final AtomicInteger completed = new AtomicInteger();
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile Throwable failure;
+
+    private long submitNanos;
+    private JPPFJob primary;
+    private final List<JPPFJob> backupJobs = new ArrayList<>();
+    private final List<Future<?>> localBackups = new ArrayList<>();
+
+    // what the last frame of the same region cost, if known, a better hint for the load balancer than probes
+    public CostMap previousCost;
+
+    // counters for the status output
+    public int backups;
+    public final AtomicInteger backupWins = new AtomicInteger();
+
+    public SpeculativeJob(JPPFClient jppfClient, ExecutorService localExecutor, String name, List<RunTask> tasks) {
+        this.jppfClient = jppfClient;
+        this.localExecutor = localExecutor;
+        this.name = name;
+        this.tasks = tasks;
+        this.results = new AtomicReferenceArray<>(tasks.size());
+        this.dispatchNanos = new long[tasks.size()];
+        this.returnNanos = new long[tasks.size()];
+        this.reissued = new boolean[tasks.size()];
+        this.primaryFailed = new boolean[tasks.size()];
+        this.copiesOut = new int[tasks.size()];
+    }
+
+    public void submit() throws Exception {
+        primary = new JPPFJob();
+        primary.setName(name);
+        for (RunTask task : tasks) {
+            primary.add(task);
+        }
+        // lets a tilecost load balancer size bundles by work
+        TileCostBundler.attachCosts(primary, costs(tasks));
+        primary.addJobListener(new JobListenerAdapter() {
+            @Override
+            public void jobDispatched(JobEvent event) {
+                long now = System.nanoTime();
+                synchronized (SpeculativeJob.this) {
+                    for (Task<?> task : event.getJobTasks()) {
+                        dispatchNanos[task.getPosition()] = now;
+                    }
+                }
+            }
+
+            @Override
+            public void jobReturned(JobEvent event) {
+                for (Task<?> task : event.getJobTasks()) {
+                    record(task.getPosition(), (RunTask) task, false);
+                }
+            }
+        });
+        submitNanos = System.nanoTime();
+        jppfClient.submitAsync(primary);
+    }
+
+    // waits up to `millis` for the frame, checking for stragglers on the way; true once every tile has a result
+    public boolean await(long millis) throws Exception {
+        boolean finished = done.await(millis, TimeUnit.MILLISECONDS);
+        if (!finished) {
+            reissueStragglers();
+            return false;
+        }
+        cancelLosers();
+        if (failure != null) {
+            throw new Exception("Tile failed on the grid", failure);
+        }
+        return true;
+    }
+
+    public int completed() {
+        return completed.get();
+    }
+
+    public int taskCount() {
+        return tasks.size();
+    }
+
+    // the winning copy of every tile, in submission order
+    public List<RunTask> results() {
+        List<RunTask> list = new ArrayList<>(tasks.size());
+        for (int i = 0; i < tasks.size(); i++) {
+            list.add(results.get(i));
+        }
+        return list;
+    }
+
+    // the next tile that came back since the last call, null if none
+    public RunTask poll() {
+        return returned.poll();
+    }
+
+    public void cancel() {
+        cancelLosers();
+        done.countDown();
+    }
+
+    private void record(int index, RunTask task, boolean fromBackup) {
+        if (task.getThrowable() != null) {
+            // a failed copy is harmless as long as the tile already has a result or another copy can still bring one
+            boolean lost;
+            synchronized (this) {
+                if (fromBackup) {
+                    copiesOut[index]--;
+                } else {
+                    primaryFailed[index] = true;
+                }
+                lost = primaryFailed[index] && copiesOut[index] == 0 && results.get(index) == null;
+            }
+            if (lost) {
+                failure = task.getThrowable();
+                done.countDown();
+            }
+            return;
+        }
+        if (!results.compareAndSet(index, null, task)) {
+            return;
+        }
+        synchronized (this) {
+            returnNanos[index] = System.nanoTime();
+        }
+        returned.add(task);
+        if (fromBackup) {
+            backupWins.incrementAndGet();
+        }
+        if (completed.incrementAndGet() == tasks.size()) {
+            done.countDown();
+        }
+    }
+
+    private void reissueStragglers() throws Exception {
+        int quorum = (int) Math.ceil(QUORUM * tasks.size());
+        if (completed.get() < quorum || completed.get() == tasks.size()) {
+            return;
+        }
+        long now = System.nanoTime();
+        List<Integer> stragglers = new ArrayList<>();
+        synchronized (this) {
+            long[] durations = new long[completed.get()];
+            int n = 0;
+            for (int i = 0; i < tasks.size() && n < durations.length; i++) {
+                if (returnNanos[i] != 0) {
+                    durations[n++] = returnNanos[i] - (dispatchNanos[i] != 0 ? dispatchNanos[i] : submitNanos);
+                }
+            }
+            Arrays.sort(durations, 0, n);
+            long threshold = Math.max(MIN_DELAY_NANOS, (long) (SLOW_FACTOR * durations[Math.min(n - 1, quorum - 1)]));
+            for (int i = 0; i < tasks.size(); i++) {
+                long out = now - (dispatchNanos[i] != 0 ? dispatchNanos[i] : submitNanos);
+                if (returnNanos[i] == 0 && !reissued[i] && out > threshold) {
+                    reissued[i] = true;
+                    copiesOut[i] += localExecutor != null ? 2 : 1;
+                    stragglers.add(i);
+                }
+            }
+        }
+        if (stragglers.isEmpty()) {
+            return;
+        }
+        backups += stragglers.size();
+        System.out.printf("Re-issuing %d straggling tasks of %s\n", stragglers.size(), name);
+
+        // one backup job per round of stragglers
+        JPPFJob backup = new JPPFJob();
+        backup.setName(name + " (backup)");
+        backup.getSLA().setPriority(BACKUP_PRIORITY);
+        final int[] indices = new int[stragglers.size()];
+        List<RunTask> copies = new ArrayList<>();
+        for (int k = 0; k < stragglers.size(); k++) {
+            indices[k] = stragglers.get(k);
+            copies.add(new RunTask(tasks.get(indices[k])));
+            backup.add(copies.get(k));
+        }
+        TileCostBundler.attachCosts(backup, costs(copies));
+        backup.addJobListener(new JobListenerAdapter() {
+            @Override
+            public void jobReturned(JobEvent event) {
+                for (Task<?> task : event.getJobTasks()) {
+                    record(indices[task.getPosition()], (RunTask) task, true);
+                }
+            }
+        });
+        backupJobs.add(backup);
+        jppfClient.submitAsync(backup);
+
+        if (localExecutor != null) {
+            for (final int index : stragglers) {
+                final RunTask copy = new RunTask(tasks.get(index));
+                localBackups.add(localExecutor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        // the grid may have answered while this copy was queued
+                        if (results.get(index) == null) {
+                            try {
+                                copy.run();
+                            } catch (Throwable t) {
+                                copy.setThrowable(t);
+                            }
+                            record(index, copy, true);
+                        }
+                    }
+                }));
+            }
+        }
+    }
+
+    // cost hints for the load balancer; a frame without a matching cost map is probed, on the local threads when there
+    // are any so the job is not held up for long
+    private double[] costs(List<RunTask> list) throws Exception {
+        return localExecutor != null ? TileCost.estimate(list, previousCost, localExecutor) : TileCost.estimate(list, previousCost);
+    }
+
+    private void cancelLosers() {
+        if (primary != null && !primary.isDone()) {
+            primary.cancel();
+        }
+        for (JPPFJob backup : backupJobs) {
+            if (!backup.isDone()) {
+                backup.cancel();
+            }
+        }
+        for (Future<?> future : localBackups) {
+            future.cancel(true);
+        }
+    }
+}
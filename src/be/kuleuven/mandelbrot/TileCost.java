@@ -0,0 +1,77 @@
+package be.kuleuven.mandelbrot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+// Cheap estimate of the work in a RunTask, from a handful of probe points iterated with the task's own kernel and limit.
+// The unit is iterations: mean probe iterations plus a fixed per-sample overhead, times the number of samples the task draws.
+// Good enough to tell interior tiles from exterior ones, which is what schedulers and load balancers need.
+public class TileCost {
+    private static final int PROBES = 16;
+    // pieces a frame is split into when probed on a pool
+    private static final int CHUNKS = 4 * Runtime.getRuntime().availableProcessors();
+    // colouring and loop overhead of one sample, in iterations
+    static final double SAMPLE_OVERHEAD = 20;
+
+    public static double estimate(RunTask task) {
+        int columns = (int) Math.max(1, Math.min(task.tileWidth, Math.round(Math.sqrt((double) PROBES * task.tileWidth / task.tileHeight))));
+        int rows = Math.max(1, Math.min(task.tileHeight, PROBES / columns));
+        long iterations = 0;
+        for (int j = 0; j < rows; j++) {
+            for (int i = 0; i < columns; i++) {
+                double dx = (task.tileX + (i + .5) * task.tileWidth / columns) / task.width * task.getWidth;
+                double dy = -(task.tileY + (j + .5) * task.tileHeight / rows) / task.height * task.getHeight;
+                double x0 = task.getMinX + dx, y0 = task.getMaxY + dy;
+                iterations += task.kernel.iterate(x0, PrecisionTier.twoSumError(task.getMinX, dx, x0) + task.getMinXLo,
+                        y0, PrecisionTier.twoSumError(task.getMaxY, dy, y0) + task.getMaxYLo, task.maxIterations);
+            }
+        }
+        double perSample = (double) iterations / (columns * rows) + SAMPLE_OVERHEAD;
+        return perSample * task.tileWidth * task.tileHeight * (task.superSamples - task.firstSample);
+    }
+
+    public static double[] estimate(List<RunTask> tasks) {
+        return estimate(tasks, null);
+    }
+
+    // what `previous` measured for tasks over the frame it was recorded for, probes for the rest
+    public static double[] estimate(List<RunTask> tasks, CostMap previous) {
+        double[] costs = new double[tasks.size()];
+        for (int i = 0; i < costs.length; i++) {
+            costs[i] = estimate(tasks.get(i), previous);
+        }
+        return costs;
+    }
+
+    // the same, probed in chunks on `executor`, for callers that are waiting to submit the tasks
+    public static double[] estimate(final List<RunTask> tasks, final CostMap previous, ExecutorService executor)
+            throws InterruptedException, ExecutionException {
+        final double[] costs = new double[tasks.size()];
+        int chunk = Math.max(1, (costs.length + CHUNKS - 1) / CHUNKS);
+        List<Callable<Void>> chunks = new ArrayList<>();
+        for (int start = 0; start < costs.length; start += chunk) {
+            final int first = start, last = Math.min(costs.length, start + chunk);
+            chunks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (int i = first; i < last; i++) {
+                        costs[i] = estimate(tasks.get(i), previous);
+                    }
+                    return null;
+                }
+            });
+        }
+        for (Future<Void> future : executor.invokeAll(chunks)) {
+            future.get();
+        }
+        return costs;
+    }
+
+    private static double estimate(RunTask task, CostMap previous) {
+        return previous != null && previous.matches(task) ? previous.estimate(task) : estimate(task);
+    }
+}
@@ -0,0 +1,166 @@
+package be.kuleuven.mandelbrot;
+
+import org.jppf.client.JPPFJob;
+import org.jppf.load.balancer.AbstractAdaptiveBundler;
+import org.jppf.load.balancer.AbstractLoadBalancingProfile;
+import org.jppf.node.protocol.JPPFDistributedJob;
+import org.jppf.utils.TypedProperties;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// JPPF bundler that sizes bundles by expected work instead of task count. Jobs carry the cumulative TileCost of their
+// tasks in the metadata. Where the job says how many of its tasks are still queued, as in the driver, the next bundle
+// starts behind the ones already handed out; where it only knows its size, as in the client, a cursor per job follows
+// how far it has been handed out. The bundler then picks the number of tasks whose cost matches this node's measured
+// throughput times `targetMillis`. As in guided self-scheduling no bundle takes more than 1/(`guidedFactor` * nodes) of
+// the remaining work, so the last bundles are small everywhere, but never less than `minMillis` of work so transfer
+// overhead stays bounded. Jobs without cost hints get `initialSize` tasks per bundle.
+//
+// Enabled with jppf.load.balancing.algorithm = tilecost, see TileCostBundlerProvider. Only the driver (between nodes) and
+// the client (between its connections) balance, so the class has to be on the classpath of whichever does the dispatching.
+public class TileCostBundler extends AbstractAdaptiveBundler<TileCostBundler.Profile> {
+    public static final String COST_KEY = "mandelbrot.tile.cost";
+
+    // index of the next undispatched task per job uuid, shared by the bundlers of all nodes. Bundlers never hear that a job
+    // ended, and cancelled jobs never reach their last task, so only the most recently used jobs are kept
+    private static final int MAX_CURSORS = 64;
+    private static final Map<String, AtomicInteger> CURSORS = new LinkedHashMap<String, AtomicInteger>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, AtomicInteger> eldest) {
+            return size() > MAX_CURSORS;
+        }
+    };
+    // bundlers between setup() and dispose(), one per node channel
+    private static final AtomicInteger NODES = new AtomicInteger();
+
+    public static class Profile extends AbstractLoadBalancingProfile {
+        public final int initialSize, guidedFactor;
+        public final long targetNanos, minNanos;
+
+        public Profile(TypedProperties config) {
+            initialSize = Math.max(1, config.getInt("initialSize", 16));
+            guidedFactor = Math.max(1, config.getInt("guidedFactor", 2));
+            targetNanos = Math.max(1, config.getLong("targetMillis", 250)) * 1000000L;
+            minNanos = Math.max(0, config.getLong("minMillis", 20)) * 1000000L;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("initialSize=%d, targetMillis=%d, minMillis=%d, guidedFactor=%d", initialSize, targetNanos / 1000000,
+                    minNanos / 1000000, guidedFactor);
+        }
+    }
+
+    // cost per nanosecond this node has been delivering, 0 until the first bundle came back
+    private double throughput;
+    // cost of the bundles handed out and not yet fed back, -1 for bundles without cost hints
+    private final Deque<Double> dispatched = new ArrayDeque<>();
+
+    public TileCostBundler(Profile profile) {
+        super(profile);
+        bundleSize = profile.initialSize;
+    }
+
+    // stores the cumulative costs of the job's tasks, in the order they were added
+    public static void attachCosts(JPPFJob job, double[] costs) {
+        double[] prefix = new double[costs.length + 1];
+        for (int i = 0; i < costs.length; i++) {
+            prefix[i + 1] = prefix[i] + costs[i];
+        }
+        job.getMetadata().setParameter(COST_KEY, prefix);
+    }
+
+    @Override
+    public synchronized int getBundleSize() {
+        JPPFDistributedJob job = getJob();
+        double[] prefix = job == null ? null : job.getMetadata().<double[]>getParameter(COST_KEY, null);
+        if (prefix == null) {
+            bundleSize = profile.initialSize;
+            dispatched.add(-1.0);
+            return bundleSize;
+        }
+
+        int total = prefix.length - 1;
+        int remaining = job.getTaskCount();
+        AtomicInteger cursor = null;
+        int start;
+        if (remaining > 0 && remaining < total) {
+            start = total - remaining;
+        } else {
+            synchronized (CURSORS) {
+                cursor = CURSORS.get(job.getUuid());
+                if (cursor == null) {
+                    cursor = new AtomicInteger();
+                    CURSORS.put(job.getUuid(), cursor);
+                }
+            }
+            start = Math.min(cursor.get(), total);
+        }
+        if (start == total) {
+            // tasks handed out again after a node failure, the cursor no longer says which
+            bundleSize = profile.initialSize;
+            dispatched.add(-1.0);
+            return bundleSize;
+        }
+
+        double target = throughput > 0 ? throughput * profile.targetNanos
+                : prefix[Math.min(total, start + profile.initialSize)] - prefix[start];
+        target = Math.min(target, (prefix[total] - prefix[start]) / (profile.guidedFactor * Math.max(1, NODES.get())));
+        target = Math.max(target, throughput * profile.minNanos);
+
+        // smallest n with at least `target` work in tasks [start, start + n)
+        int low = start + 1, high = total;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (prefix[mid] - prefix[start] >= target) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        bundleSize = low - start;
+        if (cursor != null && cursor.addAndGet(bundleSize) >= total) {
+            synchronized (CURSORS) {
+                CURSORS.remove(job.getUuid());
+            }
+        }
+        dispatched.add(prefix[low] - prefix[start]);
+        return bundleSize;
+    }
+
+    @Override
+    public synchronized void feedback(int size, double totalTime) {
+        Double cost = dispatched.poll();
+        if (cost == null || cost < 0 || totalTime <= 0) {
+            return;
+        }
+        double measured = cost / totalTime;
+        throughput = throughput == 0 ? measured : 0.7 * throughput + 0.3 * measured;
+    }
+
+    @Override
+    public void feedback(int size, double totalTime, double accumulatedElapsed, double overheadTime) {
+        feedback(size, totalTime);
+    }
+
+    @Override
+    public void setup() {
+        super.setup();
+        NODES.incrementAndGet();
+    }
+
+    @Override
+    public void dispose() {
+        NODES.decrementAndGet();
+        super.dispose();
+    }
+
+    @Override
+    public int maxSize() {
+        return Integer.MAX_VALUE;
+    }
+}
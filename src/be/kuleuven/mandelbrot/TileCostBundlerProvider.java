@@ -0,0 +1,24 @@
+package be.kuleuven.mandelbrot;
+
+import org.jppf.load.balancer.Bundler;
+import org.jppf.load.balancer.spi.JPPFBundlerProvider;
+import org.jppf.utils.TypedProperties;
+
+// Registers TileCostBundler as the "tilecost" algorithm, through META-INF/services
+public class TileCostBundlerProvider implements JPPFBundlerProvider<TileCostBundler.Profile> {
+
+    @Override
+    public String getAlgorithmName() {
+        return "tilecost";
+    }
+
+    @Override
+    public Bundler<TileCostBundler.Profile> createBundler(TileCostBundler.Profile profile) {
+        return new TileCostBundler(profile);
+    }
+
+    @Override
+    public TileCostBundler.Profile createProfile(TypedProperties configuration) {
+        return new TileCostBundler.Profile(configuration);
+    }
+}
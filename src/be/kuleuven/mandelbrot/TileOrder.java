@@ -0,0 +1,61 @@
+package be.kuleuven.mandelbrot;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+// Orders the tiles of a frame by distance from a point of interest, the centre of the frame or the last cursor position,
+// so that region finishes first. Rows that conjugate symmetry copies are left out of the tiles; a tile takes the
+// priority of whichever of itself and its mirror image is closer, since both appear when it is done.
+public class TileOrder {
+
+    public static List<Rectangle> tiles(int width, int height, int tileSize, final ConjugateSymmetry symmetry, final double focusX, final double focusY) {
+        List<Rectangle> tiles = new ArrayList<>();
+        if (symmetry.mirroredRows() > 0) {
+            addTiles(tiles, width, 0, symmetry.mirrorStart, tileSize);
+            addTiles(tiles, width, symmetry.mirrorEnd + 1, height, tileSize);
+        } else {
+            addTiles(tiles, width, 0, height, tileSize);
+        }
+        Collections.sort(tiles, new Comparator<Rectangle>() {
+            @Override
+            public int compare(Rectangle a, Rectangle b) {
+                return Double.compare(distance(a, symmetry, focusX, focusY), distance(b, symmetry, focusX, focusY));
+            }
+        });
+        return tiles;
+    }
+
+    // the rows of the mirrored range that are copies of rows in `tile`, null if there are none
+    public static Rectangle mirror(Rectangle tile, ConjugateSymmetry symmetry) {
+        if (symmetry.mirroredRows() == 0) {
+            return null;
+        }
+        // source rows of the mirrored range are [mirror - mirrorEnd, mirror - mirrorStart]
+        int first = Math.max(tile.y, symmetry.source(symmetry.mirrorEnd));
+        int last = Math.min(tile.y + tile.height - 1, symmetry.source(symmetry.mirrorStart));
+        if (first > last) {
+            return null;
+        }
+        return new Rectangle(tile.x, symmetry.source(last), tile.width, last - first + 1);
+    }
+
+    private static void addTiles(List<Rectangle> tiles, int width, int top, int bottom, int tileSize) {
+        for (int y = top; y < bottom; y += tileSize) {
+            for (int x = 0; x < width; x += tileSize) {
+                tiles.add(new Rectangle(x, y, Math.min(tileSize, width - x), Math.min(tileSize, bottom - y)));
+            }
+        }
+    }
+
+    private static double distance(Rectangle tile, ConjugateSymmetry symmetry, double focusX, double focusY) {
+        double d = Point.distance(tile.getCenterX(), tile.getCenterY(), focusX, focusY);
+        Rectangle mirror = mirror(tile, symmetry);
+        if (mirror != null) {
+            d = Math.min(d, Point.distance(mirror.getCenterX(), mirror.getCenterY(), focusX, focusY));
+        }
+        return d;
+    }
+}